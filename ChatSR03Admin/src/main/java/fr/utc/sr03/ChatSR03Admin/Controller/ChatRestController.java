@@ -1,27 +1,40 @@
 package fr.utc.sr03.ChatSR03Admin.Controller;
 
+import fr.utc.sr03.ChatSR03Admin.datasource.ReadWriteRoutingDataSource;
+import fr.utc.sr03.ChatSR03Admin.dto.ChatPageDto;
+import fr.utc.sr03.ChatSR03Admin.dto.ChatSummaryDto;
+import fr.utc.sr03.ChatSR03Admin.dto.InvitationBatchDto;
+import fr.utc.sr03.ChatSR03Admin.dto.InvitationBatchResultDto;
+import fr.utc.sr03.ChatSR03Admin.dto.MessageDto;
+import fr.utc.sr03.ChatSR03Admin.dto.MessageHistoryDto;
+import fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto;
 import fr.utc.sr03.ChatSR03Admin.entity.Chat;
 import fr.utc.sr03.ChatSR03Admin.entity.Invitation;
-import fr.utc.sr03.ChatSR03Admin.entity.User;
 import fr.utc.sr03.ChatSR03Admin.repository.ChatRepository;
 import fr.utc.sr03.ChatSR03Admin.repository.InvitationRepository;
 import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import fr.utc.sr03.ChatSR03Admin.service.ChatMembershipCache;
+import fr.utc.sr03.ChatSR03Admin.service.ExpiredChatJanitor;
+import fr.utc.sr03.ChatSR03Admin.service.InvitationBatchWriter;
+import fr.utc.sr03.ChatSR03Admin.service.MessageStore;
+import fr.utc.sr03.ChatSR03Admin.service.ResourceVersions;
 import fr.utc.sr03.ChatSR03Admin.websocket.WebSocketServer;
-import jakarta.websocket.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 /**
  * RestController for handling chat-related API requests.
@@ -33,6 +46,10 @@ public class ChatRestController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ChatRestController.class);
 
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
+
+    private static final int MAX_CHAT_PAGE_SIZE = 100;
+
     @Autowired
     private ChatRepository chatRepository;
 
@@ -42,43 +59,54 @@ public class ChatRestController {
     @Autowired
     private InvitationRepository invitationRepository;
 
+    @Autowired
+    private MessageStore messageStore;
+
+    @Autowired
+    private ChatMembershipCache chatMembershipCache;
+
+    @Autowired
+    private InvitationBatchWriter invitationBatchWriter;
+
+    @Autowired
+    private ExpiredChatJanitor expiredChatJanitor;
+
+    @Autowired
+    private ResourceVersions resourceVersions;
+
+    @Autowired
+    private WebSocketServer webSocketServer;
+
     /**
-     * Retrieves all chats by user.
+     * Retrieves the chats a user owns or is invited to and that have not expired, ordered by chat ID.
+     * Pages are selected by the database, either by number or, when {@code after} is given, from a cursor.
      *
      * @param idUser the user ID.
-     * @param page   the page number.
-     * @param size   the page size.
-     * @return ResponseEntity containing a page of chats for the user.
+     * @param page   the page number, ignored when a cursor is given.
+     * @param size   the page size, capped at 100.
+     * @param after  the {@code nextCursor} of the previous page.
+     * @param webRequest the request, for the conditional headers.
+     * @return ResponseEntity containing a page of chats for the user, null if not modified.
      */
     @GetMapping("/all/{idUser}")
-    public ResponseEntity<Page<Chat>> getAllChatsByUser(
+    public ResponseEntity<ChatPageDto> getAllChatsByUser(
             @PathVariable Integer idUser,
             @RequestParam(defaultValue = "0") Integer page,
-            @RequestParam(defaultValue = "2") Integer size) {
-        Pageable pageable = PageRequest.of(page, size);
-        Date currentDate = new Date();
-
-        // Fetching chats where user is owner
-        List<Chat> ownerChats = chatRepository.findByOwnerId(idUser);
-        // Fetching chats where user is guest and not expired
-        List<Chat> guestChats = chatRepository.findByGuestId(idUser, currentDate);
-
-        // Combining both lists
-        List<Chat> combinedList = new ArrayList<>();
-        combinedList.addAll(ownerChats);
-        combinedList.addAll(guestChats);
-
-        removeExpiredChats(combinedList);
-
-        // Creating a sublist based on the page and size
-        int start = Math.min((int) pageable.getOffset(), combinedList.size());
-        int end = Math.min((start + pageable.getPageSize()), combinedList.size());
-        List<Chat> subList = combinedList.subList(start, end);
+            @RequestParam(defaultValue = "2") Integer size,
+            @RequestParam(required = false) Integer after,
+            WebRequest webRequest) {
+        if (webRequest.checkNotModified(resourceVersions.chatListTag(idUser))) {
+            return null;
+        }
+        int pageSize = Math.max(1, Math.min(size, MAX_CHAT_PAGE_SIZE));
+        Pageable pageable = after != null ? PageRequest.of(0, pageSize) : PageRequest.of(Math.max(page, 0), pageSize);
 
-        // Creating a Page object for the sublist
-        Page<Chat> result = new PageImpl<>(subList, pageable, combinedList.size());
+        Slice<ChatSummaryDto> chats = read(resourceVersions.chatListChangedRecently(idUser),
+                () -> chatRepository.findVisibleByUserId(idUser, new Date(), after != null ? after : 0, pageable));
 
-        return ResponseEntity.ok(result);
+        List<ChatSummaryDto> content = chats.getContent();
+        Integer nextCursor = chats.hasNext() ? content.get(content.size() - 1).idChat() : null;
+        return ResponseEntity.ok(new ChatPageDto(content, pageable.getPageNumber(), pageSize, !chats.hasNext(), nextCursor));
     }
 
     /**
@@ -89,43 +117,122 @@ public class ChatRestController {
      */
     @GetMapping("/connectedUsers/{idChat}")
     public Set<Integer> getConnectedUsers(@PathVariable Integer idChat) {
-        WebSocketServer webSocketServer = WebSocketServer.getInstance();
-        Set<Session> sessions = webSocketServer.getSessions(idChat);
-        if (sessions == null) {
-            LOGGER.info("No sessions found for chat {}", idChat);
-            return Set.of();
-        }
-        return sessions.stream()
-                .map(session -> (Integer) session.getUserProperties().get("idUser"))
-                .collect(Collectors.toSet());
+        return webSocketServer.getConnectedUsers(idChat);
     }
 
     /**
-     * Retrieves the users participating in a specific chat.
+     * Retrieves the users participating in a specific chat, the guests first and the owner last.
+     * The participant IDs come from the {@link ChatMembershipCache} and only the public columns of the users are read.
      *
-     * @param chatId the chat ID.
-     * @return ResponseEntity containing the list of users in the chat.
+     * @param chatId     the chat ID.
+     * @param webRequest the request, for the conditional headers.
+     * @return ResponseEntity containing the list of users in the chat, null if not modified.
      */
     @GetMapping("/users/{chatId}")
-    public ResponseEntity<List<User>> getUserByChat(@PathVariable Integer chatId) {
-        List<User> user = chatRepository.findGuestByChatId(chatId);
-        User tmp = chatRepository.findOwnerByChatId(chatId);
-        user.add(tmp);
+    public ResponseEntity<List<ParticipantDto>> getUserByChat(@PathVariable Integer chatId, WebRequest webRequest) {
+        if (webRequest.checkNotModified(resourceVersions.participantsTag(chatId))) {
+            return null;
+        }
+        ChatMembershipCache.ChatMembership membership = chatMembershipCache.get(chatId);
+        List<Integer> ids = new ArrayList<>(membership.guestIds());
+        if (membership.ownerId() != null) {
+            ids.add(membership.ownerId());
+        }
+        if (ids.isEmpty()) {
+            return ResponseEntity.ok(List.of());
+        }
+        Map<Integer, ParticipantDto> usersById = new HashMap<>();
+        for (ParticipantDto u : read(resourceVersions.participantsChangedRecently(chatId), () -> userRepository.findParticipantsByIds(ids))) {
+            usersById.put(u.idUser(), u);
+        }
+        List<ParticipantDto> user = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            ParticipantDto u = usersById.get(id);
+            if (u != null) {
+                user.add(u);
+            }
+        }
         return ResponseEntity.ok(user);
     }
 
     /**
      * Retrieves a chat by its ID.
+     * The GET endpoints of the chats carry an ETag from {@link ResourceVersions}; a request whose
+     * {@code If-None-Match} still matches gets a 304 before anything is read.
      *
-     * @param chatId the chat ID.
-     * @return ResponseEntity containing the chat.
+     * @param chatId     the chat ID.
+     * @param webRequest the request, for the conditional headers.
+     * @return ResponseEntity containing the chat, null if not modified.
      */
     @GetMapping("/{chatId}")
-    public ResponseEntity<Chat> getChatById(@PathVariable Integer chatId) {
-        return ResponseEntity.ok(chatRepository.findById(chatId).orElseThrow(
+    public ResponseEntity<Chat> getChatById(@PathVariable Integer chatId, WebRequest webRequest) {
+        if (webRequest.checkNotModified(resourceVersions.chatTag(chatId))) {
+            return null;
+        }
+        return ResponseEntity.ok(read(resourceVersions.chatChangedRecently(chatId), () -> chatRepository.findById(chatId)).orElseThrow(
                 () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat not found")));
     }
 
+    /**
+     * Runs the read of a tagged resource, on the primary if the resource changed within the replica lag, so the
+     * body is never older than the ETag computed before it.
+     *
+     * @param recent true if the resource changed recently.
+     * @param read   the read.
+     * @return the result of the read.
+     */
+    private static <T> T read(boolean recent, Supplier<T> read) {
+        return recent ? ReadWriteRoutingDataSource.readOnPrimary(read) : read.get();
+    }
+
+    /**
+     * Retrieves a page of the message history of a chat with keyset pagination.
+     * Without cursor the newest messages are returned, {@code before} scrolls back and
+     * {@code after} fetches the messages received since the given ID.
+     *
+     * @param chatId the chat ID.
+     * @param before the ID of the oldest message already known, exclusive.
+     * @param after  the ID of the newest message already known, exclusive.
+     * @param limit  the page size, capped at 200.
+     * @return ResponseEntity containing the page of messages, oldest first.
+     */
+    @GetMapping("/{chatId}/messages")
+    public ResponseEntity<MessageHistoryDto> getMessages(
+            @PathVariable Integer chatId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "50") Integer limit) {
+        if (before != null && after != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "before and after cannot be used together");
+        }
+        int size = Math.max(1, Math.min(limit, MAX_HISTORY_PAGE_SIZE));
+        // One extra row tells whether another page exists without a COUNT
+        int fetch = size + 1;
+
+        List<MessageDto> messages;
+        boolean hasOlder;
+        if (after != null) {
+            messages = new ArrayList<>(messageStore.findAfter(chatId, after, fetch));
+            if (messages.size() > size) {
+                messages.remove(size);
+            }
+            hasOlder = true;
+        } else {
+            messages = new ArrayList<>(before != null
+                    ? messageStore.findBefore(chatId, before, fetch)
+                    : messageStore.findLatest(chatId, fetch));
+            hasOlder = messages.size() > size;
+            if (hasOlder) {
+                messages.remove(size);
+            }
+            Collections.reverse(messages);
+        }
+
+        Long beforeCursor = hasOlder && !messages.isEmpty() ? messages.get(0).id() : null;
+        Long afterCursor = messages.isEmpty() ? after : messages.get(messages.size() - 1).id();
+        return ResponseEntity.ok(new MessageHistoryDto(messages, beforeCursor, afterCursor));
+    }
+
     /**
      * Creates a new chat with a specified chat object.
      *
@@ -135,8 +242,13 @@ public class ChatRestController {
     @PostMapping("/create")
     public ResponseEntity<Chat> updateChat(@RequestBody Chat newChat) {
         newChat.setIdChat(0);
-        chatRepository.save(newChat);
-        return ResponseEntity.ok(newChat);
+        Chat saved = chatRepository.save(newChat);
+        chatMembershipCache.invalidate(saved.getIdChat());
+        expiredChatJanitor.schedule(saved.getIdChat(), saved.getDateExpiration());
+        if (saved.getOwnerId() != null) {
+            resourceVersions.membersChanged(saved.getIdChat(), List.of(saved.getOwnerId()));
+        }
+        return ResponseEntity.ok(saved);
     }
 
     /**
@@ -144,76 +256,111 @@ public class ChatRestController {
      *
      * @param userId the user ID.
      * @param chatId the chat ID.
-     * @return ResponseEntity containing the created invitation.
+     * @return ResponseEntity containing the invitation, also when the user was already invited.
      */
     @PutMapping("/invite/{userId}/{chatId}")
     public ResponseEntity<Invitation> inviteUserToChat(@PathVariable Integer userId, @PathVariable Integer chatId) {
+        int created;
+        try {
+            created = invitationRepository.insertIfAbsent(chatId, userId);
+        } catch (DataIntegrityViolationException e) {
+            // Inserted by a concurrent request, or the chat or the user deleted in the meantime
+            created = 0;
+        }
+        // The response keeps the invitation with its user and chat, read from the second-level cache when warm
         Invitation i = new Invitation(
                 userRepository.findById(userId).orElseThrow(
                         () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found")),
                 chatRepository.findById(chatId).orElseThrow(
                         () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat not found"))
         );
-
-        invitationRepository.save(i);
+        if (created > 0) {
+            chatMembershipCache.invalidate(chatId);
+            resourceVersions.membersChanged(chatId, List.of(userId));
+        }
         return ResponseEntity.ok(i);
     }
 
+    /**
+     * Invites and uninvites a list of users to a chat in one request.
+     * Users are checked with one query and inserted with a single JDBC batch, the removals are one bulk DELETE.
+     *
+     * @param chatId the chat ID.
+     * @param batch  the IDs of the users to invite and to uninvite.
+     * @return ResponseEntity containing the number of changes and the unknown user IDs.
+     */
+    @PostMapping("/{chatId}/invitations")
+    public ResponseEntity<InvitationBatchResultDto> updateInvitations(@PathVariable Integer chatId, @RequestBody InvitationBatchDto batch) {
+        if (!chatRepository.existsById(chatId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat not found");
+        }
+        InvitationBatchResultDto result = invitationBatchWriter.apply(chatId, batch.invite(), batch.uninvite());
+        Set<Integer> changed = new HashSet<>();
+        if (batch.invite() != null) {
+            changed.addAll(batch.invite());
+        }
+        if (batch.uninvite() != null) {
+            changed.addAll(batch.uninvite());
+        }
+        resourceVersions.membersChanged(chatId, changed);
+        return ResponseEntity.ok(result);
+    }
+
     /**
      * Updates an existing chat.
      *
      * @param chatId  the chat ID.
      * @param newChat the new chat details.
-     * @return ResponseEntity containing the updated chat.
+     * @param ifMatch the ETag the client read, optional.
+     * @return ResponseEntity containing the updated chat and its new ETag, 412 if it changed since {@code ifMatch}.
      */
     @PutMapping("/update/{chatId}")
-    public ResponseEntity<Chat> updateChat(@PathVariable Integer chatId, @RequestBody Chat newChat) {
+    public ResponseEntity<Chat> updateChat(@PathVariable Integer chatId, @RequestBody Chat newChat,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         Chat chat = chatRepository.findById(chatId).orElseThrow(
                 () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat not found"));
+        resourceVersions.claimChat(chatId, ifMatch);
         chat.setTitle(newChat.getTitle());
         chat.setDescription(newChat.getDescription());
         chat.setDateExpiration(newChat.getDateExpiration());
         chatRepository.save(chat);
-        return ResponseEntity.ok(chat);
+        expiredChatJanitor.schedule(chatId, chat.getDateExpiration());
+        resourceVersions.chatChanged(chatId, chatMembershipCache.get(chatId).members());
+        return ResponseEntity.ok().eTag(resourceVersions.chatTag(chatId)).body(chat);
     }
 
     /**
-     * Deletes a chat and its invitations.
+     * Deletes a chat with its messages and invitations, and closes its sessions.
      *
      * @param chatId the chat ID.
-     * @return ResponseEntity indicating the result of the deletion.
+     * @return ResponseEntity indicating the result of the deletion, 404 if the chat does not exist.
      */
     @DeleteMapping("/chats/{chatId}")
     public ResponseEntity<?> deleteChat(@PathVariable Integer chatId) {
-        Chat chat = chatRepository.findById(chatId).orElseThrow(
-                () -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat not found"));
-        List<Invitation> i = invitationRepository.findByChat(chat);
-        for (Invitation inv : i) {
-            invitationRepository.delete(inv);
+        if (!chatRepository.existsById(chatId) || !expiredChatJanitor.deleteChat(chatId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat not found");
         }
-        chatRepository.delete(chat);
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Removes the invitation of a user to a chat with a single DELETE.
+     *
+     * @param idChat the chat ID.
+     * @param idUser the user ID.
+     * @return ResponseEntity indicating the result of the deletion, 404 if the user was not invited.
+     */
     @DeleteMapping("/invitation/{idChat}/{idUser}")
     public ResponseEntity<?> deleteInvitation(
             @PathVariable Integer idChat,
             @PathVariable Integer idUser
     ) {
-        Chat chat = chatRepository.findChatByIdChat(idChat);
-        User user = userRepository.findById(idUser).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No user with this id"));
-        Invitation i = invitationRepository.findByChatAndUser(chat, user);
-        invitationRepository.delete(i);
+        if (invitationRepository.deleteByChatIdAndUserIds(idChat, List.of(idUser)) == 0) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No invitation for this user");
+        }
+        chatMembershipCache.invalidate(idChat);
+        resourceVersions.membersChanged(idChat, List.of(idUser));
         return ResponseEntity.ok().build();
     }
-    /**
-     * Remove the expired chats from the list
-     *
-     * @param chats
-     */
-    private void removeExpiredChats(List<Chat> chats) {
-        Date now = new Date();
-        chats.removeIf(chat -> chat == null || (chat.getDateExpiration() != null && chat.getDateExpiration().before(now)));
-    }
 
 }
@@ -2,6 +2,7 @@ package fr.utc.sr03.ChatSR03Admin.Controller;
 
 import fr.utc.sr03.ChatSR03Admin.entity.User;
 import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import fr.utc.sr03.ChatSR03Admin.service.LoginAttemptTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +23,8 @@ public class ConnexionController {
 
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private LoginAttemptTracker loginAttemptTracker;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnexionController.class);
 
@@ -98,12 +101,9 @@ public class ConnexionController {
     private void handleFailedLoginAttempt(User user, Model model) {
         User userByMail = userRepository.findByEmail(user.getEmail());
         if (userByMail != null) {
-            userByMail.setLoginAttempts(userByMail.getLoginAttempts() + 1);
-            if (userByMail.getLoginAttempts() >= 3) {
-                userByMail.setActivated(false);
+            if (loginAttemptTracker.loginFailed(userByMail)) {
                 model.addAttribute("desactivated", true);
             }
-            userRepository.save(userByMail);
         } else {
             LOGGER.info("User not found by email : {}", user.getEmail());
         }
@@ -118,12 +118,11 @@ public class ConnexionController {
      * @return the name of the view to be rendered or a redirect instruction.
      */
     private String handleSuccessfulLogin(User loggedUser, Model model, WebRequest req) {
-        if (!loggedUser.isActivated()) {
+        if (!loggedUser.isActivated() || !loginAttemptTracker.loginSucceeded(loggedUser)) {
             model.addAttribute("askAdmin", true);
             return "login";
         }
         loggedUser.setLoginAttempts(0);
-        userRepository.save(loggedUser);
         req.setAttribute("user", loggedUser, WebRequest.SCOPE_SESSION);
         if (loggedUser.isAdmin()) {
             LOGGER.info("J'ai bien été identifié avec les droits admin");
@@ -2,18 +2,25 @@ package fr.utc.sr03.ChatSR03Admin.Controller;
 
 import fr.utc.sr03.ChatSR03Admin.Security.PasswordGenerator;
 import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import fr.utc.sr03.ChatSR03Admin.service.ChatMembershipCache;
+import fr.utc.sr03.ChatSR03Admin.service.UserSearchIndex;
 import fr.utc.sr03.ChatSR03Admin.entity.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
 
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -25,6 +32,12 @@ public class UserController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ChatMembershipCache chatMembershipCache;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(UserController.class);
 
 
@@ -38,6 +51,7 @@ public class UserController {
      * @param enabledUsers  flag to include enabled users.
      * @param search        the search query for users.
      * @param sort          the sort order (ASC or DESC).
+     * @param after         the cursor of the previous page, to read the page from its position.
      * @param req           the current web request.
      * @return the name of the view to be rendered.
      */
@@ -50,6 +64,7 @@ public class UserController {
             @RequestParam(defaultValue = "true") boolean enabledUsers,
             @RequestParam(required = false) String search,
             @RequestParam(required = false, defaultValue = "ASC") String sort, // Nouveau paramètre de tri
+            @RequestParam(required = false) String after,
             WebRequest req
     ) {
         LOGGER.info("=== GET ADMIN ===");
@@ -59,33 +74,31 @@ public class UserController {
         LOGGER.info("Enabled Users : {}", enabledUsers);
         LOGGER.info("Sort Order : {}", sort);
         if (checkSession(req)) return "redirect:/connexion";
-        Sort sorting = Sort.by(sort.equals("ASC") ? Sort.Direction.ASC : Sort.Direction.DESC, "lastName");
-        Pageable pageable = PageRequest.of(page, size, sorting);
+        Pageable pageable = PageRequest.of(page, size);
         Page<User> users;
-        if (disabledUsers) {
-            if (enabledUsers) {
-                if (search != null && !search.isEmpty()) {
-                    users = userRepository.findByFirstNameContainingIgnoreCaseOrLastNameContainingIgnoreCase(search, search, pageable);
-                } else {
-                    users = userRepository.findAll(pageable);
-                }
-            } else {
-                if (search != null && !search.isEmpty()) {
-                    users = userRepository.findByIsActivatedAndFirstNameContainingIgnoreCaseOrIsActivatedAndLastNameContainingIgnoreCase(false, search, false, search, pageable);
-                } else {
-                    users = userRepository.findAllByIsActivatedFalse(pageable);
-                }
+        String nextCursor = null;
+        int totalPages;
+        if (disabledUsers || enabledUsers) {
+            // Both flags set means no filter on the activation status
+            Boolean activated = disabledUsers && enabledUsers ? null : enabledUsers;
+            boolean ascending = "ASC".equals(sort);
+            // With a cursor the page starts at the position of the previous user instead of skipping the offset
+            UserSearchIndex.SearchResult result;
+            try {
+                result = after != null
+                        ? userSearchIndex.searchAfter(search, activated, ascending, after, pageable.getPageSize())
+                        : userSearchIndex.search(search, activated, ascending, (int) pageable.getOffset(), pageable.getPageSize());
+            } catch (IllegalArgumentException e) {
+                // Offset too deep or cursor not given by the index
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
             }
+            users = new PageImpl<>(loadInOrder(result.ids()), pageable, result.total());
+            nextCursor = result.nextCursor();
+            // Only the pages reachable by offset get a link, the deeper ones are reached with the cursor
+            totalPages = Math.min(users.getTotalPages(), userSearchIndex.getMaxOffset() / size + 1);
         } else {
-            if (enabledUsers) {
-                if (search != null && !search.isEmpty()) {
-                    users = userRepository.findByIsActivatedAndFirstNameContainingIgnoreCaseOrIsActivatedAndLastNameContainingIgnoreCase(true, search, true, search, pageable);
-                } else {
-                    users = userRepository.findAllByIsActivatedTrue(pageable);
-                }
-            } else {
-                users = new PageImpl<>(new ArrayList<>());
-            }
+            users = new PageImpl<>(new ArrayList<>());
+            totalPages = users.getTotalPages();
         }
         LOGGER.info("role sent to thymeleaf = {}", getRole(req));
         model.addAttribute("role", getRole(req));
@@ -98,9 +111,11 @@ public class UserController {
         model.addAttribute("utilisateurs", users);
         model.addAttribute("disabledUsers", disabledUsers);
         model.addAttribute("enabledUsers", enabledUsers);
-        model.addAttribute("totalPages", users.getTotalPages());
+        model.addAttribute("totalPages", totalPages);
         model.addAttribute("pageSize", size);
         model.addAttribute("search", search);
+        model.addAttribute("sort", sort);
+        model.addAttribute("nextCursor", nextCursor);
         return "admin";
     }
 
@@ -260,9 +275,31 @@ public class UserController {
         LOGGER.info("=== DELETE USER ===");
         if (checkSession(req)) return "redirect:/connexion";
         userRepository.deleteById(id);
+        chatMembershipCache.invalidateUser(id);
         return "redirect:/user/admin";
     }
 
+    /**
+     * Loads users keeping the order of their IDs.
+     *
+     * @param ids the IDs of the users.
+     * @return the users found, in the order of the IDs.
+     */
+    private List<User> loadInOrder(List<Integer> ids) {
+        Map<Integer, User> byId = new HashMap<>();
+        for (User user : userRepository.findAllById(ids)) {
+            byId.put(user.getIdUser(), user);
+        }
+        List<User> users = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            User user = byId.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
     /**
      * Checks the session to ensure the user has admin privileges.
      *
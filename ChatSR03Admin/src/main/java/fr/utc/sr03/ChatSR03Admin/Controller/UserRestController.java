@@ -1,22 +1,40 @@
 package fr.utc.sr03.ChatSR03Admin.Controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import fr.utc.sr03.ChatSR03Admin.Security.PasswordGenerator;
+import fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto;
+import fr.utc.sr03.ChatSR03Admin.dto.UserPageDto;
 import fr.utc.sr03.ChatSR03Admin.entity.User;
 import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import fr.utc.sr03.ChatSR03Admin.service.LoginAttemptTracker;
+import fr.utc.sr03.ChatSR03Admin.service.ResourceVersions;
 import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/user")
@@ -30,39 +48,121 @@ public class UserRestController {
     private UserRepository userRepository;
     @Autowired
     private JwtTokenProvider JwtTokenProvider;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private ResourceVersions resourceVersions;
+    @Autowired
+    private LoginAttemptTracker loginAttemptTracker;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private static final int MAX_USER_PAGE_SIZE = 500;
 
     /**
-     * Retrieves all users.
+     * Retrieves a page of users ordered by ID, with keyset pagination.
      *
-     * @return a list of all users.
+     * @param after the {@code nextCursor} of the previous page, omitted for the first page.
+     * @param limit the page size, capped at 500.
+     * @return the users of the page and the cursor of the next one.
+     */
+    @GetMapping
+    public UserPageDto getUsers(@RequestParam(defaultValue = "0") Integer after,
+                                @RequestParam(defaultValue = "50") Integer limit) {
+        int size = Math.max(1, Math.min(limit, MAX_USER_PAGE_SIZE));
+        List<ParticipantDto> users = userRepository.findPageAfter(after, Limit.of(size + 1));
+        Integer nextCursor = null;
+        if (users.size() > size) {
+            users = users.subList(0, size);
+            nextCursor = users.get(size - 1).idUser();
+        }
+        return new UserPageDto(users, nextCursor);
+    }
+
+    /**
+     * Retrieves all users as a JSON array, with every field of the user as this endpoint always returned them.
+     * Kept for the existing clients; {@code /export} streams the same users without their credentials.
+     * The users are read from a database cursor and detached once written, so the memory used does not depend
+     * on the number of users.
+     *
+     * @return the streamed list of all users.
      */
     @GetMapping("userList")
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    public ResponseEntity<StreamingResponseBody> getAllUsers() {
+        return streamJson(userRepository::streamAllUsers, entityManager::detach);
+    }
+
+    /**
+     * Streams every user as a JSON array, without their credentials nor login attempts.
+     * Rows are read from a database cursor and written one by one, so the memory used does not depend on
+     * the number of users.
+     *
+     * @return the streamed list of all users.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        return streamJson(userRepository::streamAll, user -> {
+        });
+    }
+
+    /**
+     * Writes the rows of a stream as a JSON array, reading them within a transaction while the response is sent.
+     *
+     * @param rows    opens the stream of rows.
+     * @param written called with each row once written.
+     * @return the streamed response.
+     */
+    private <T> ResponseEntity<StreamingResponseBody> streamJson(Supplier<Stream<T>> rows, Consumer<T> written) {
+        StreamingResponseBody body = out -> transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<T> stream = rows.get();
+                 JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                Iterator<T> it = stream.iterator();
+                while (it.hasNext()) {
+                    T row = it.next();
+                    generator.writeObject(row);
+                    written.accept(row);
+                }
+                generator.writeEndArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     /**
      * Retrieves a user by their ID.
+     * The response carries an ETag; a request whose {@code If-None-Match} still matches gets a 304 without reading the user.
      *
-     * @param id the ID of the user to retrieve.
-     * @return an Optional containing the user if found, otherwise empty.
+     * @param id         the ID of the user to retrieve.
+     * @param webRequest the request, for the conditional headers.
+     * @return an Optional containing the user if found, otherwise empty; null if not modified.
      */
     @GetMapping("/id/{id}")
-    public Optional<User> getUserById(@PathVariable Integer id) {
+    public Optional<User> getUserById(@PathVariable Integer id, WebRequest webRequest) {
+        if (webRequest.checkNotModified(resourceVersions.userTag(id))) {
+            return null;
+        }
         return userRepository.findById(id);
     }
 
     /**
      * Updates a user with the given ID.
      *
-     * @param id   the ID of the user to update.
-     * @param user the user data to update.
-     * @return the updated user.
-     * @throws ResponseStatusException if the user with the given ID is not found.
+     * @param id      the ID of the user to update.
+     * @param user    the user data to update.
+     * @param ifMatch the ETag the client read, optional.
+     * @return the updated user, with its new ETag.
+     * @throws ResponseStatusException if the user with the given ID is not found, or 412 if it changed since {@code ifMatch}.
      */
     @PutMapping("/update/{id}")
-    public User updateUser(@PathVariable Integer id, @RequestBody User user) {
+    public ResponseEntity<User> updateUser(@PathVariable Integer id, @RequestBody User user,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         User userToUpdate = userRepository.findById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No user with this id"));
+        resourceVersions.claimUser(id, ifMatch);
         userToUpdate.setEmail(user.getEmail());
         userToUpdate.setPassword(user.getPassword());
         userToUpdate.setActivated(user.isActivated());
@@ -70,7 +170,8 @@ public class UserRestController {
         userToUpdate.setLoginAttempts(user.getLoginAttempts());
         userToUpdate.setFirstName(user.getFirstName());
         userToUpdate.setLastName(user.getLastName());
-        return userRepository.save(userToUpdate);
+        User saved = userRepository.save(userToUpdate);
+        return ResponseEntity.ok().eTag(resourceVersions.userTag(id)).body(saved);
     }
 
     /**
@@ -137,22 +238,20 @@ public class UserRestController {
         }
 
         if (userFromDb.getPassword().equals(user.getPassword())) {
+            if (!loginAttemptTracker.loginSucceeded(userFromDb)) {
+                throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Account is deactivated");
+            }
             String token = JwtTokenProvider.createSimpleToken(userFromDb.getIdUser(), userFromDb.getEmail(), userFromDb.isAdmin());
             LOGGER.info("Voici le token généré " + token);
             userFromDb.setLoginAttempts(0);
-            userRepository.save(userFromDb);
             return ResponseEntity.ok()
                     .header(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, HttpHeaders.AUTHORIZATION)
                     .header(HttpHeaders.AUTHORIZATION, token)
                     .body(userFromDb);
         } else {
-            userFromDb.setLoginAttempts(userFromDb.getLoginAttempts() + 1);
-            if (userFromDb.getLoginAttempts() >= 3) {
-                userFromDb.setActivated(false);
-                userRepository.save(userFromDb);
+            if (loginAttemptTracker.loginFailed(userFromDb)) {
                 throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Account is deactivated");
             } else {
-                userRepository.save(userFromDb);
                 throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Incorrect login or password");
             }
         }
@@ -59,6 +59,17 @@ public class JwtTokenFilter extends OncePerRequestFilter {
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Authenticates the asynchronous dispatches too, such as the completion of a streamed response,
+     * which are authorized again by Spring Security.
+     *
+     * @return false so that the filter also runs on asynchronous dispatches.
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
     /**
      * Extracts the JWT token from the request.
      *
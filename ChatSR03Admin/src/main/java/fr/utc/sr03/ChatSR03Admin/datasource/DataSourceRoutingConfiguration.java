@@ -0,0 +1,80 @@
+package fr.utc.sr03.ChatSR03Admin.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Splits the reads and the writes between the primary database and a read replica.
+ * <p>
+ * Only active when {@code chat.datasource.replica.jdbc-url} is set; otherwise Spring Boot creates the
+ * usual single data source. The primary pool is configured by the {@code spring.datasource.*} and
+ * {@code spring.datasource.hikari.*} properties, the replica pool by the {@code chat.datasource.replica.*}
+ * Hikari properties ({@code jdbc-url}, {@code username}, {@code password}, {@code maximum-pool-size}...).
+ * <p>
+ * The application data source routes the {@code @Transactional(readOnly = true)} work to the replica,
+ * see {@link ReadWriteRoutingDataSource}. The entities read there are kept out of the second-level cache,
+ * see {@link ReplicaReadCacheModeListener}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.datasource.replica.jdbc-url")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class DataSourceRoutingConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("chat.datasource.replica")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("primaryDataSource") DataSource primary,
+                                               @Qualifier("replicaDataSource") DataSource replica,
+                                               MeterRegistry meterRegistry,
+                                               @Value("${chat.datasource.replica.maxLagMillis:5000}") long maxLagMillis) {
+        return new ReplicaLagMonitor(primary, replica, maxLagMillis, meterRegistry);
+    }
+
+    @Bean
+    public ReplicaReadCacheModeListener replicaReadCacheModeListener(EntityManagerFactory entityManagerFactory,
+                                                                     ReplicaLagMonitor replicaLagMonitor) {
+        return new ReplicaReadCacheModeListener(entityManagerFactory, replicaLagMonitor);
+    }
+
+    /**
+     * The data source of JPA, JDBC and Flyway. Connections are only acquired on the first statement,
+     * once the read-only flag of the transaction is known.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                 @Qualifier("replicaDataSource") DataSource replica,
+                                 ReplicaLagMonitor replicaLagMonitor) {
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, replica, replicaLagMonitor);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
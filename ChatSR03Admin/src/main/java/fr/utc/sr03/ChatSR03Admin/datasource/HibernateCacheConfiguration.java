@@ -0,0 +1,79 @@
+package fr.utc.sr03.ChatSR03Admin.datasource;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hibernate second-level and query cache, kept in process by the Caffeine JCache provider.
+ * <p>
+ * Every region is declared here with its own bound and time to live, Hibernate refuses to start on an
+ * undeclared one. The entity regions hold {@code User} and {@code Chat}; the query regions hold the IDs
+ * returned by the cacheable repository queries, which Hibernate drops whenever one of their tables is
+ * written through JPA, bulk JPQL statements included. Writes made with plain JDBC bypass this tracking:
+ * they only touch {@code Invitation} and {@code Message}, which no cached query reads.
+ * <p>
+ * Hit, miss and put counts of each region are published with the other Hibernate statistics as the
+ * {@code hibernate.*} meters.
+ */
+@Configuration
+public class HibernateCacheConfiguration {
+
+    public static final String USER_REGION = "user";
+    public static final String CHAT_REGION = "chat";
+    public static final String USER_BY_EMAIL_REGION = "query.user.byEmail";
+
+    private static final String DEFAULT_QUERY_REGION = "default-query-results-region";
+    private static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(@Value("${chat.l2cache.user.maxSize:10000}") long userMaxSize,
+                                              @Value("${chat.l2cache.user.ttlSeconds:600}") long userTtlSeconds,
+                                              @Value("${chat.l2cache.chat.maxSize:10000}") long chatMaxSize,
+                                              @Value("${chat.l2cache.chat.ttlSeconds:600}") long chatTtlSeconds,
+                                              @Value("${chat.l2cache.query.maxSize:10000}") long queryMaxSize,
+                                              @Value("${chat.l2cache.query.ttlSeconds:300}") long queryTtlSeconds) {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        // A manager of its own, the default one is shared by every application context of the JVM
+        URI uri = URI.create(provider.getDefaultURI() + "/hibernate/" + UUID.randomUUID());
+        CacheManager cacheManager = provider.getCacheManager(uri, getClass().getClassLoader());
+        cacheManager.createCache(USER_REGION, region(userMaxSize, userTtlSeconds));
+        cacheManager.createCache(CHAT_REGION, region(chatMaxSize, chatTtlSeconds));
+        cacheManager.createCache(USER_BY_EMAIL_REGION, region(queryMaxSize, queryTtlSeconds));
+        cacheManager.createCache(DEFAULT_QUERY_REGION, region(queryMaxSize, queryTtlSeconds));
+        // The update timestamps of the tables must outlive every cached query result: never evicted
+        cacheManager.createCache(TIMESTAMPS_REGION, new CaffeineConfiguration<>());
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.USE_QUERY_CACHE, true);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> region(long maxSize, long ttlSeconds) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maxSize));
+        configuration.setExpireAfterWrite(OptionalLong.of(TimeUnit.SECONDS.toNanos(ttlSeconds)));
+        return configuration;
+    }
+}
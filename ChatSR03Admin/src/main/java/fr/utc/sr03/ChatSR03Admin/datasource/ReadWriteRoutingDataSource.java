@@ -0,0 +1,114 @@
+package fr.utc.sr03.ChatSR03Admin.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Data source sending the read-only transactions to the read replica and everything else to the primary.
+ * <p>
+ * The route is chosen when the connection is acquired, so this data source must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the transaction manager only
+ * marks the transaction read-only after asking for a connection.
+ * <p>
+ * The replica is skipped while {@link ReplicaLagMonitor} reports it as lagging or unreachable, and a
+ * replica connection that cannot be acquired falls back to the primary. A read that must see the latest
+ * writes, for instance because its response is tagged with a version bumped at commit, runs through
+ * {@link #readOnPrimary(Supplier)}.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadWriteRoutingDataSource.class);
+
+    /**
+     * Keys of the target data sources.
+     */
+    public enum Route {
+        PRIMARY,
+        REPLICA
+    }
+
+    private static final ThreadLocal<Boolean> PRIMARY_REQUIRED = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final ReplicaLagMonitor lagMonitor;
+
+    /**
+     * Creates a routing data source.
+     *
+     * @param primary    the pool of the primary database.
+     * @param replica    the pool of the read replica.
+     * @param lagMonitor the monitor telling whether the replica can be used.
+     */
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReplicaLagMonitor lagMonitor) {
+        this.primary = primary;
+        this.replica = replica;
+        this.lagMonitor = lagMonitor;
+    }
+
+    /**
+     * Registers the primary and the replica as the targets, then resolves them.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        super.afterPropertiesSet();
+    }
+
+    /**
+     * Runs a read on the primary even if its transactions are read-only. Without a replica, it simply runs the read.
+     *
+     * @param read the read to run on the current thread.
+     * @return the result of the read.
+     */
+    public static <T> T readOnPrimary(Supplier<T> read) {
+        if (PRIMARY_REQUIRED.get() != null) {
+            return read.get();
+        }
+        PRIMARY_REQUIRED.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            PRIMARY_REQUIRED.remove();
+        }
+    }
+
+    /**
+     * Tells whether the reads of the current thread are forced to the primary by {@link #readOnPrimary(Supplier)}.
+     *
+     * @return true inside a read on the primary.
+     */
+    public static boolean isPrimaryRequired() {
+        return PRIMARY_REQUIRED.get() != null;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return PRIMARY_REQUIRED.get() == null
+                && TransactionSynchronizationManager.isCurrentTransactionReadOnly() && lagMonitor.isReplicaUsable()
+                ? Route.REPLICA
+                : Route.PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (determineCurrentLookupKey() == Route.PRIMARY) {
+            return primary.getConnection();
+        }
+        try {
+            return replica.getConnection();
+        } catch (SQLException e) {
+            LOGGER.warn("Réplique indisponible, lecture sur la base principale : {}", e.getMessage());
+            lagMonitor.markUnusable();
+            return primary.getConnection();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package fr.utc.sr03.ChatSR03Admin.datasource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+
+/**
+ * Measures the lag of the read replica with a heartbeat.
+ * <p>
+ * Every {@code chat.datasource.replica.checkMillis} the current time is written to the
+ * {@code ReplicaHeartbeat} row of the primary, then read back from the replica: the difference with the
+ * current time is the replication lag. The replica is usable while the lag stays within
+ * {@code chat.datasource.replica.maxLagMillis}; a failed check, or a failed connection reported by
+ * {@link ReadWriteRoutingDataSource}, makes it unusable until the next successful check.
+ * <p>
+ * The last lag is published as the {@code chat.datasource.replica.lag} gauge, in milliseconds.
+ */
+public class ReplicaLagMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaLagMonitor.class);
+
+    private static final String WRITE_SQL = "UPDATE ReplicaHeartbeat SET beat = ? WHERE id = 1";
+    private static final String READ_SQL = "SELECT beat FROM ReplicaHeartbeat WHERE id = 1";
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final long maxLagMillis;
+    private final MeterRegistry meterRegistry;
+
+    private volatile boolean usable;
+    private boolean checked;
+    private volatile long lagMillis = -1;
+
+    /**
+     * Creates a monitor. The replica is not used before the first successful check.
+     *
+     * @param primary       the pool of the primary database.
+     * @param replica       the pool of the read replica.
+     * @param maxLagMillis  the maximum tolerated lag.
+     * @param meterRegistry the registry of the lag gauge.
+     */
+    public ReplicaLagMonitor(DataSource primary, DataSource replica, long maxLagMillis, MeterRegistry meterRegistry) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.maxLagMillis = maxLagMillis;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registers the lag gauge once the monitor is built.
+     */
+    @PostConstruct
+    public void registerMeters() {
+        meterRegistry.gauge("chat.datasource.replica.lag", this, ReplicaLagMonitor::getLagMillis);
+    }
+
+    /**
+     * Writes a heartbeat to the primary and measures how far behind the replica is.
+     */
+    @Scheduled(fixedDelayString = "${chat.datasource.replica.checkMillis:1000}")
+    public void check() {
+        boolean wasUsable = usable;
+        boolean first = !checked;
+        checked = true;
+        try {
+            primary.update(WRITE_SQL, System.currentTimeMillis());
+            Long beat = replica.queryForObject(READ_SQL, Long.class);
+            lagMillis = beat == null ? Long.MAX_VALUE : System.currentTimeMillis() - beat;
+            usable = lagMillis <= maxLagMillis;
+        } catch (DataAccessException e) {
+            lagMillis = -1;
+            usable = false;
+            if (wasUsable || first) {
+                LOGGER.warn("Réplique injoignable, lectures sur la base principale : {}", e.getMessage());
+            }
+            return;
+        }
+        if ((wasUsable || first) && !usable) {
+            LOGGER.warn("Retard de la réplique de {} ms (max {} ms), lectures sur la base principale", lagMillis, maxLagMillis);
+        } else if (!wasUsable && usable) {
+            LOGGER.info("Réplique à jour ({} ms de retard), lectures en lecture seule sur la réplique", lagMillis);
+        }
+    }
+
+    /**
+     * Excludes the replica until the next successful check.
+     */
+    public void markUnusable() {
+        usable = false;
+    }
+
+    public boolean isReplicaUsable() {
+        return usable;
+    }
+
+    /**
+     * Retrieves the lag measured by the last check.
+     *
+     * @return the lag in milliseconds, -1 if the replica could not be reached.
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+}
@@ -0,0 +1,42 @@
+package fr.utc.sr03.ChatSR03Admin.datasource;
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.transaction.TransactionExecution;
+import org.springframework.transaction.TransactionExecutionListener;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the entities read on the replica out of the Hibernate second-level cache.
+ * <p>
+ * A read-only transaction routed to a lagging replica may load a user or a chat as it was before a write,
+ * for instance right after that write evicted it from the cache. Put there, the stale entity would be served
+ * to every node reading the cache until its time to live. The sessions of these transactions still read the
+ * cache but never fill it ({@link CacheStoreMode#BYPASS}): only the primary does, through the writes and the reads
+ * made outside read-only transactions or in {@link ReadWriteRoutingDataSource#readOnPrimary}. The same goes
+ * for the results of the cacheable queries.
+ */
+public class ReplicaReadCacheModeListener implements TransactionExecutionListener {
+
+    private final EntityManagerFactory entityManagerFactory;
+    private final ReplicaLagMonitor lagMonitor;
+
+    public ReplicaReadCacheModeListener(EntityManagerFactory entityManagerFactory, ReplicaLagMonitor lagMonitor) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.lagMonitor = lagMonitor;
+    }
+
+    @Override
+    public void afterBegin(TransactionExecution transaction, Throwable beginFailure) {
+        if (beginFailure != null || !transaction.isReadOnly()
+                || ReadWriteRoutingDataSource.isPrimaryRequired() || !lagMonitor.isReplicaUsable()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.getResource(entityManagerFactory) instanceof EntityManagerHolder holder) {
+            // A JPA property rather than the session cache mode, which EntityManager.find resets from it
+            holder.getEntityManager().setProperty(AvailableSettings.JAKARTA_SHARED_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.List;
+
+/**
+ * Page of the chats of a user, ordered by chat ID.
+ * No total is computed: {@code last} tells whether another page exists.
+ *
+ * @param content    the chats of the page.
+ * @param number     the page number, 0 when the page was fetched with a cursor.
+ * @param size       the requested page size.
+ * @param last       true if there is no further page.
+ * @param nextCursor the cursor to fetch the next page, null on the last page.
+ */
+public record ChatPageDto(List<ChatSummaryDto> content, int number, int size, boolean last, Integer nextCursor) {
+}
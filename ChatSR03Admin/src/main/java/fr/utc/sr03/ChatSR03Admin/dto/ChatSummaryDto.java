@@ -0,0 +1,16 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.Date;
+
+/**
+ * Compact view of a chat returned by the chat list API.
+ *
+ * @param idChat         the chat ID, used as pagination cursor.
+ * @param title          the title of the chat.
+ * @param description    the description of the chat.
+ * @param dateCreation   the creation date.
+ * @param dateExpiration the expiration date, null if the chat never expires.
+ * @param ownerId        the ID of the user who created the chat.
+ */
+public record ChatSummaryDto(Integer idChat, String title, String description, Date dateCreation, Date dateExpiration, Integer ownerId) {
+}
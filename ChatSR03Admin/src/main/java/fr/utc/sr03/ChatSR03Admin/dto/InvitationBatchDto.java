@@ -0,0 +1,12 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.List;
+
+/**
+ * Invitations to add to and remove from a chat in one request.
+ *
+ * @param invite   the IDs of the users to invite, may be null.
+ * @param uninvite the IDs of the users whose invitation is removed, may be null.
+ */
+public record InvitationBatchDto(List<Integer> invite, List<Integer> uninvite) {
+}
@@ -0,0 +1,13 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.List;
+
+/**
+ * Result of an {@link InvitationBatchDto}.
+ *
+ * @param invited      the number of invitations created, the users already invited are not counted.
+ * @param uninvited    the number of invitations removed.
+ * @param unknownUsers the IDs to invite that match no user, skipped.
+ */
+public record InvitationBatchResultDto(int invited, int uninvited, List<Integer> unknownUsers) {
+}
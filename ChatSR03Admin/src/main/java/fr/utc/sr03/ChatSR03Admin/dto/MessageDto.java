@@ -0,0 +1,15 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.Date;
+
+/**
+ * Compact view of a chat message returned by the history API.
+ *
+ * @param id       the message ID, used as pagination cursor.
+ * @param senderId the ID of the user who sent the message.
+ * @param sequence the sequence number of the message in its chat, as sent in the {@code chatSequence} WebSocket field.
+ * @param sentAt   the time the message was received by the server.
+ * @param body     the text of the message.
+ */
+public record MessageDto(Long id, Integer senderId, long sequence, Date sentAt, String body) {
+}
@@ -0,0 +1,13 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.List;
+
+/**
+ * Page of the history of a chat, in chronological order.
+ *
+ * @param messages the messages of the page, oldest first.
+ * @param before   the cursor to fetch the previous (older) page, null when there is none.
+ * @param after    the cursor to fetch the next (newer) page, null when the page is empty.
+ */
+public record MessageHistoryDto(List<MessageDto> messages, Long before, Long after) {
+}
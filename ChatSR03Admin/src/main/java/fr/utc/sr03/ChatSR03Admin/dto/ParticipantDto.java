@@ -0,0 +1,14 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+/**
+ * Public view of a user, as a chat participant or in the user listing, without the credentials.
+ *
+ * @param idUser    the user ID.
+ * @param firstName the first name.
+ * @param lastName  the last name.
+ * @param email     the email address.
+ * @param admin     true if the user is an administrator.
+ * @param activated true if the account is activated.
+ */
+public record ParticipantDto(int idUser, String firstName, String lastName, String email, boolean admin, boolean activated) {
+}
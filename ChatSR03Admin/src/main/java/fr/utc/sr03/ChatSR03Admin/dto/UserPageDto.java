@@ -0,0 +1,12 @@
+package fr.utc.sr03.ChatSR03Admin.dto;
+
+import java.util.List;
+
+/**
+ * Page of the user listing, ordered by user ID.
+ *
+ * @param users      the users of the page.
+ * @param nextCursor the cursor to fetch the next page, null on the last page.
+ */
+public record UserPageDto(List<ParticipantDto> users, Integer nextCursor) {
+}
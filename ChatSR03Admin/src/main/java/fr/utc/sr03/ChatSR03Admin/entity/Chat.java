@@ -1,6 +1,10 @@
 package fr.utc.sr03.ChatSR03Admin.entity;
 
+import fr.utc.sr03.ChatSR03Admin.datasource.HibernateCacheConfiguration;
+import fr.utc.sr03.ChatSR03Admin.service.ResourceVersionListener;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import jakarta.validation.constraints.Size;
 import org.springframework.format.annotation.DateTimeFormat;
 
@@ -8,6 +12,9 @@ import java.util.Date;
 
 @Entity
 @Table(name = "Chat")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfiguration.CHAT_REGION)
+@EntityListeners(ResourceVersionListener.class)
 public class Chat {
 
     @Id
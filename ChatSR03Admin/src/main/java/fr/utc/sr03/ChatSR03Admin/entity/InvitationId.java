@@ -4,6 +4,8 @@ import java.io.Serializable;
 import java.util.Objects;
 
 public class InvitationId implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private Integer chat;
     private Integer user;
 
@@ -0,0 +1,92 @@
+package fr.utc.sr03.ChatSR03Admin.entity;
+
+import jakarta.persistence.*;
+
+import java.util.Date;
+
+@Entity
+@Table(name = "Message", indexes = @Index(name = "idx_message_chat_id", columnList = "id_chat, id"))
+public class Message {
+
+    /** Length of the {@code body} column, in characters. */
+    public static final int MAX_BODY_LENGTH = 4000;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long idMessage;
+
+    @Column(name = "id_chat")
+    private Integer chatId;
+
+    @Column(name = "id_user")
+    private Integer senderId;
+
+    @Column(name = "sequence")
+    private long sequence;
+
+    @Column(name = "sentAt")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date sentAt;
+
+    @Column(name = "body", length = MAX_BODY_LENGTH)
+    private String body;
+
+    public Message(Integer chatId, Integer senderId, long sequence, Date sentAt, String body) {
+        this.chatId = chatId;
+        this.senderId = senderId;
+        this.sequence = sequence;
+        this.sentAt = sentAt;
+        this.body = body;
+    }
+
+    public Message() {}
+
+    public Long getIdMessage() {
+        return idMessage;
+    }
+
+    public void setIdMessage(Long idMessage) {
+        this.idMessage = idMessage;
+    }
+
+    public Integer getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(Integer chatId) {
+        this.chatId = chatId;
+    }
+
+    public Integer getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(Integer senderId) {
+        this.senderId = senderId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Date getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Date sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+}
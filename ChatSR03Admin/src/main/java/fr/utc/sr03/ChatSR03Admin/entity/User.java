@@ -1,6 +1,11 @@
 package fr.utc.sr03.ChatSR03Admin.entity;
 
+import fr.utc.sr03.ChatSR03Admin.datasource.HibernateCacheConfiguration;
+import fr.utc.sr03.ChatSR03Admin.service.ResourceVersionListener;
+import fr.utc.sr03.ChatSR03Admin.service.UserSearchIndexListener;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.Size;
@@ -8,6 +13,9 @@ import jdk.jfr.BooleanFlag;
 
 @Entity
 @Table(name = "User")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfiguration.USER_REGION)
+@EntityListeners({UserSearchIndexListener.class, ResourceVersionListener.class})
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,60 @@
+package fr.utc.sr03.ChatSR03Admin.monitoring;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Filter recording the number of SQL statements executed by each HTTP request.
+ * <p>
+ * The count of every request is published as the {@code http.server.sql.statements} distribution summary,
+ * tagged by method and route, so a new N+1 shows up as a jump of its endpoint. A request above
+ * {@code chat.sql.statementBudget} statements is logged as a warning; 0 disables the warning.
+ */
+@Component
+public class SqlStatementCountFilter extends OncePerRequestFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlStatementCountFilter.class);
+
+    private final MeterRegistry meterRegistry;
+
+    private final int statementBudget;
+
+    public SqlStatementCountFilter(MeterRegistry meterRegistry,
+                                   @Value("${chat.sql.statementBudget:10}") int statementBudget) {
+        this.meterRegistry = meterRegistry;
+        this.statementBudget = statementBudget;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        SqlStatementCounter.reset();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            int count = SqlStatementCounter.get();
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String route = pattern != null ? pattern.toString() : "UNKNOWN";
+            DistributionSummary.builder("http.server.sql.statements")
+                    .description("SQL statements executed by an HTTP request")
+                    .tag("method", request.getMethod())
+                    .tag("uri", route)
+                    .register(meterRegistry)
+                    .record(count);
+            if (statementBudget > 0 && count > statementBudget) {
+                LOGGER.warn("{} requêtes SQL pour {} {} (budget {})", count, request.getMethod(), route, statementBudget);
+            }
+        }
+    }
+}
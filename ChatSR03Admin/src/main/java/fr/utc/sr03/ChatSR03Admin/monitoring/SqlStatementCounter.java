@@ -0,0 +1,39 @@
+package fr.utc.sr03.ChatSR03Admin.monitoring;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Hibernate statement inspector counting the SQL statements prepared by the current thread.
+ * <p>
+ * Registered through {@code spring.jpa.properties.hibernate.session_factory.statement_inspector}, so
+ * Hibernate creates it itself: the count is kept in a static thread local read by
+ * {@link SqlStatementCountFilter}. Statements issued through {@code JdbcTemplate} are not counted.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * Resets the count of the current thread.
+     */
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    /**
+     * Retrieves the number of statements prepared by the current thread since the last reset.
+     *
+     * @return the number of statements.
+     */
+    public static int get() {
+        return COUNT.get()[0];
+    }
+}
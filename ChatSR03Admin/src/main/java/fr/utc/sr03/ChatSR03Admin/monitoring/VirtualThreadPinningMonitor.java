@@ -0,0 +1,85 @@
+package fr.utc.sr03.ChatSR03Admin.monitoring;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.StringJoiner;
+
+/**
+ * Reports the virtual threads pinned to their carrier thread, when {@code spring.threads.virtual.enabled} is set.
+ * <p>
+ * A virtual thread blocking inside a {@code synchronized} block or a native frame keeps its carrier thread, so
+ * a few of them are enough to starve every request. The JFR {@code jdk.VirtualThreadPinned} events longer than
+ * {@code chat.virtualThreads.pinnedThresholdMillis} are streamed in process and logged with the frames of the
+ * application code that led to them. They are counted by the {@code chat.virtualThreads.pinned} counter,
+ * tagged {@code origin=application} when one of these frames is ours and {@code origin=library} otherwise.
+ */
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadPinningMonitor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String APPLICATION_PACKAGE = "fr.utc.sr03.";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final MeterRegistry meterRegistry;
+    private final Duration threshold;
+    private RecordingStream recording;
+
+    public VirtualThreadPinningMonitor(MeterRegistry meterRegistry,
+                                       @Value("${chat.virtualThreads.pinnedThresholdMillis:20}") long thresholdMillis) {
+        this.meterRegistry = meterRegistry;
+        this.threshold = Duration.ofMillis(thresholdMillis);
+    }
+
+    /**
+     * Starts streaming the pinning events.
+     */
+    @PostConstruct
+    public void start() {
+        recording = new RecordingStream();
+        recording.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recording.onEvent(PINNED_EVENT, this::onPinned);
+        recording.startAsync();
+        LOGGER.info("Threads virtuels actifs, épinglages de plus de {} ms signalés", threshold.toMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        recording.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        StringJoiner frames = new StringJoiner("\n\tat ", "\n\tat ", "");
+        boolean application = false;
+        if (stackTrace != null) {
+            int logged = 0;
+            for (RecordedFrame frame : stackTrace.getFrames()) {
+                String type = frame.getMethod().getType().getName();
+                boolean ours = type.startsWith(APPLICATION_PACKAGE);
+                application |= ours;
+                if (logged < LOGGED_FRAMES || ours) {
+                    frames.add(type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber());
+                    logged++;
+                }
+            }
+        }
+        String origin = application ? "application" : "library";
+        meterRegistry.counter("chat.virtualThreads.pinned", "origin", origin).increment();
+        LOGGER.warn("Thread virtuel épinglé pendant {} ms ({}){}", event.getDuration().toMillis(), origin, frames);
+    }
+}
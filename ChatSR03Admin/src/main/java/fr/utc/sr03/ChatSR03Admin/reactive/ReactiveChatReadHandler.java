@@ -0,0 +1,196 @@
+package fr.utc.sr03.ChatSR03Admin.reactive;
+
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import fr.utc.sr03.ChatSR03Admin.dto.ChatPageDto;
+import fr.utc.sr03.ChatSR03Admin.dto.ChatSummaryDto;
+import fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto;
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.service.ResourceVersions;
+import io.r2dbc.spi.Readable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking variant of the read endpoints of {@link fr.utc.sr03.ChatSR03Admin.Controller.ChatRestController}:
+ * the chat list of a user, the participants of a chat and a chat by ID.
+ * <p>
+ * The queries go through R2DBC, so a request waiting on the database holds no thread. The JSON bodies, the
+ * page semantics and the ETags are those of the MVC endpoints; the requests need the same bearer token. The
+ * ETags are built from the counters of {@link ResourceVersions}, read through R2DBC as well.
+ */
+public class ReactiveChatReadHandler {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private static final int MAX_CHAT_PAGE_SIZE = 100;
+
+    private static final String CHAT_LIST_SQL = "SELECT c.id, c.title, c.description, c.`date`, c.endDate, c.ownerId FROM Chat c " +
+            "WHERE c.ownerId = :userId AND (c.endDate IS NULL OR c.endDate > :now) AND c.id > :afterId " +
+            "UNION " +
+            "SELECT c.id, c.title, c.description, c.`date`, c.endDate, c.ownerId FROM Invitation i JOIN Chat c ON c.id = i.id_chat " +
+            "WHERE i.id_user = :userId AND (c.endDate IS NULL OR c.endDate > :now) AND c.id > :afterId " +
+            "ORDER BY id LIMIT :limit OFFSET :offset";
+
+    private static final String PARTICIPANTS_SQL = "SELECT u.id, u.firstName, u.familyName, u.email, u.isAdmin, u.isActivated, " +
+            "CASE WHEN u.id = c.ownerId THEN 1 ELSE 0 END AS isOwner FROM `User` u JOIN Chat c ON c.id = :chatId " +
+            "WHERE u.id = c.ownerId OR u.id IN (SELECT i.id_user FROM Invitation i WHERE i.id_chat = :chatId) " +
+            "ORDER BY isOwner, u.id";
+
+    private static final String CHAT_SQL = "SELECT c.id, c.title, c.description, c.`date`, c.endDate, c.ownerId FROM Chat c WHERE c.id = :chatId";
+
+    private static final String VERSIONS_SQL = "SELECT resource_key, version FROM ResourceVersion WHERE resource_key IN (:keys)";
+
+    private final DatabaseClient databaseClient;
+    private final JwtTokenProvider jwtTokenProvider;
+
+    public ReactiveChatReadHandler(DatabaseClient databaseClient, JwtTokenProvider jwtTokenProvider) {
+        this.databaseClient = databaseClient;
+        this.jwtTokenProvider = jwtTokenProvider;
+    }
+
+    /**
+     * Builds the routes of the reactive read API, all behind the bearer token check.
+     *
+     * @return the router function.
+     */
+    public RouterFunction<ServerResponse> routes() {
+        return RouterFunctions.route()
+                .GET("/api/chat/all/{idUser}", this::getAllChatsByUser)
+                .GET("/api/chat/users/{chatId}", this::getUserByChat)
+                .GET("/api/chat/{chatId}", this::getChatById)
+                .filter(this::authenticate)
+                .build();
+    }
+
+    /**
+     * Retrieves a page of the chats a user owns or is invited to and that have not expired, ordered by chat ID.
+     */
+    private Mono<ServerResponse> getAllChatsByUser(ServerRequest request) {
+        Integer idUser = Integer.valueOf(request.pathVariable("idUser"));
+        return tag(ResourceVersions.chatListTagKeys(idUser)).flatMap(etag -> request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> {
+            int size = request.queryParam("size").map(Integer::valueOf).orElse(2);
+            int page = request.queryParam("page").map(Integer::valueOf).orElse(0);
+            Integer after = request.queryParam("after").map(Integer::valueOf).orElse(null);
+            int pageSize = Math.max(1, Math.min(size, MAX_CHAT_PAGE_SIZE));
+            int pageNumber = after != null ? 0 : Math.max(page, 0);
+            // One extra row tells whether another page exists without a COUNT
+            return databaseClient.sql(CHAT_LIST_SQL)
+                    .bind("userId", idUser)
+                    .bind("now", LocalDateTime.now())
+                    .bind("afterId", after != null ? after : 0)
+                    .bind("limit", pageSize + 1)
+                    .bind("offset", pageNumber * pageSize)
+                    .map(row -> new ChatSummaryDto(row.get("id", Integer.class), row.get("title", String.class),
+                            row.get("description", String.class), toDate(row, "date"), toDate(row, "endDate"),
+                            row.get("ownerId", Integer.class)))
+                    .all()
+                    .collectList()
+                    .flatMap(chats -> {
+                        boolean hasNext = chats.size() > pageSize;
+                        List<ChatSummaryDto> content = hasNext ? chats.subList(0, pageSize) : chats;
+                        Integer nextCursor = hasNext ? content.get(content.size() - 1).idChat() : null;
+                        return ServerResponse.ok().eTag(etag)
+                                .bodyValue(new ChatPageDto(content, pageNumber, pageSize, !hasNext, nextCursor));
+                    });
+        })));
+    }
+
+    /**
+     * Retrieves the users participating in a chat, the guests first and the owner last.
+     */
+    private Mono<ServerResponse> getUserByChat(ServerRequest request) {
+        Integer chatId = Integer.valueOf(request.pathVariable("chatId"));
+        return tag(ResourceVersions.participantsTagKeys(chatId)).flatMap(etag -> request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> databaseClient.sql(PARTICIPANTS_SQL)
+                .bind("chatId", chatId)
+                .map(row -> new ParticipantDto(row.get("id", Integer.class), row.get("firstName", String.class),
+                        row.get("familyName", String.class), row.get("email", String.class),
+                        Boolean.TRUE.equals(row.get("isAdmin", Boolean.class)), Boolean.TRUE.equals(row.get("isActivated", Boolean.class))))
+                .all()
+                .collectList()
+                .flatMap(participants -> ServerResponse.ok().eTag(etag).bodyValue(participants)))));
+    }
+
+    /**
+     * Retrieves a chat by its ID, 404 if it does not exist.
+     */
+    private Mono<ServerResponse> getChatById(ServerRequest request) {
+        Integer chatId = Integer.valueOf(request.pathVariable("chatId"));
+        return tag(ResourceVersions.chatTagKeys(chatId)).flatMap(etag -> request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> databaseClient.sql(CHAT_SQL)
+                .bind("chatId", chatId)
+                .map(row -> {
+                    Chat chat = new Chat();
+                    chat.setIdChat(row.get("id", Integer.class));
+                    chat.setTitle(row.get("title", String.class));
+                    chat.setDescription(row.get("description", String.class));
+                    chat.setDateCreation(toDate(row, "date"));
+                    chat.setDateExpiration(toDate(row, "endDate"));
+                    chat.setOwnerId(row.get("ownerId", Integer.class));
+                    return chat;
+                })
+                .one()
+                .flatMap(chat -> ServerResponse.ok().eTag(etag).bodyValue(chat))
+                .switchIfEmpty(ServerResponse.status(HttpStatus.NOT_FOUND).build()))));
+    }
+
+    /**
+     * Reads the counters of an ETag and builds it like {@link ResourceVersions} does.
+     */
+    private Mono<String> tag(List<String> keys) {
+        return databaseClient.sql(VERSIONS_SQL)
+                .bind("keys", keys)
+                .map(row -> Map.entry(row.get("resource_key", String.class), row.get("version", Long.class)))
+                .all()
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .map(versions -> ResourceVersions.tag(keys, versions));
+    }
+
+    /**
+     * Rejects the requests without a valid bearer token, like the {@code /api/**} rule of the MVC security chain.
+     */
+    private Mono<ServerResponse> authenticate(ServerRequest request, HandlerFunction<ServerResponse> next) {
+        if (request.method() == HttpMethod.OPTIONS) {
+            // Preflight, answered by the CORS filter: browsers never send the token with it
+            return ServerResponse.ok().build();
+        }
+        String header = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.startsWith(BEARER_PREFIX)
+                || jwtTokenProvider.getAuthentication(header.substring(BEARER_PREFIX.length())).isEmpty()) {
+            return ServerResponse.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            return next.handle(request);
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().build();
+        }
+    }
+
+    /**
+     * Reads a date column, which the drivers return as a {@link LocalDateTime} or a {@link LocalDate},
+     * in the time zone used by JPA.
+     */
+    private static Date toDate(Readable row, String column) {
+        Object value = row.get(column);
+        if (value instanceof LocalDateTime dateTime) {
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        }
+        if (value instanceof LocalDate date) {
+            return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+        }
+        return null;
+    }
+}
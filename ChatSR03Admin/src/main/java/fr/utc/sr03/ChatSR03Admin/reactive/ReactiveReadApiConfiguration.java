@@ -0,0 +1,127 @@
+package fr.utc.sr03.ChatSR03Admin.reactive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.reactive.CorsWebFilter;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Reactive read API served by Reactor Netty on its own port, next to the Tomcat MVC application.
+ * <p>
+ * Only active when {@code chat.reactive.enabled} is set. It has its own R2DBC connection pool, configured by
+ * {@code chat.reactive.r2dbc.*}, and reuses the JSON mapper, the JWT provider and the ETags of the MVC side.
+ * Cross-origin requests are accepted from any origin, like the {@code @CrossOrigin} MVC controllers.
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.reactive.enabled", havingValue = "true")
+public class ReactiveReadApiConfiguration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveReadApiConfiguration.class);
+
+    /**
+     * Database client over a dedicated R2DBC connection pool. The pool itself is not a bean: a
+     * {@code ConnectionFactory} bean would make the JDBC {@code DataSource} auto-configuration back off.
+     */
+    @Bean
+    public DatabaseClient reactiveDatabaseClient(@Value("${chat.reactive.r2dbc.url}") String url,
+                                                 @Value("${chat.reactive.r2dbc.username:}") String username,
+                                                 @Value("${chat.reactive.r2dbc.password:}") String password,
+                                                 @Value("${chat.reactive.r2dbc.maxPoolSize:10}") int maxPoolSize) {
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate();
+        if (!username.isEmpty()) {
+            options.option(ConnectionFactoryOptions.USER, username);
+        }
+        if (!password.isEmpty()) {
+            options.option(ConnectionFactoryOptions.PASSWORD, password);
+        }
+        return DatabaseClient.create(new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+                .name("reactive")
+                .maxSize(maxPoolSize)
+                .initialSize(1)
+                .maxIdleTime(Duration.ofMinutes(30))
+                .build()));
+    }
+
+    @Bean
+    public ReactiveChatReadHandler reactiveChatReadHandler(DatabaseClient reactiveDatabaseClient,
+                                                           JwtTokenProvider jwtTokenProvider) {
+        return new ReactiveChatReadHandler(reactiveDatabaseClient, jwtTokenProvider);
+    }
+
+    /**
+     * Answers the CORS preflight requests before the token check and adds the CORS headers to the responses.
+     */
+    private static CorsWebFilter corsWebFilter() {
+        CorsConfiguration configuration = new CorsConfiguration();
+        configuration.setAllowedOrigins(List.of(CorsConfiguration.ALL));
+        configuration.setAllowedHeaders(List.of(CorsConfiguration.ALL));
+        configuration.setAllowedMethods(List.of(HttpMethod.GET.name(), HttpMethod.OPTIONS.name()));
+        configuration.setExposedHeaders(List.of(HttpHeaders.ETAG));
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", configuration);
+        return new CorsWebFilter(source);
+    }
+
+    /**
+     * Binds the Reactor Netty server once the context is ready, and disposes the connection pool after it stops.
+     */
+    @Bean
+    public SmartLifecycle reactiveReadServer(ReactiveChatReadHandler handler,
+                                             DatabaseClient reactiveDatabaseClient,
+                                             ObjectMapper objectMapper,
+                                             @Value("${chat.reactive.port:8081}") int port) {
+        HandlerStrategies strategies = HandlerStrategies.builder()
+                .codecs(codecs -> {
+                    codecs.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(objectMapper));
+                    codecs.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper));
+                })
+                .webFilter(corsWebFilter())
+                .build();
+        ReactorHttpHandlerAdapter adapter = new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(handler.routes(), strategies));
+        return new SmartLifecycle() {
+            private DisposableServer server;
+
+            @Override
+            public void start() {
+                server = HttpServer.create().port(port).handle(adapter).bindNow();
+                LOGGER.info("API de lecture réactive démarrée sur le port {}", server.port());
+            }
+
+            @Override
+            public void stop() {
+                server.disposeNow();
+                server = null;
+                ((ConnectionPool) reactiveDatabaseClient.getConnectionFactory()).dispose();
+            }
+
+            @Override
+            public boolean isRunning() {
+                return server != null;
+            }
+        };
+    }
+}
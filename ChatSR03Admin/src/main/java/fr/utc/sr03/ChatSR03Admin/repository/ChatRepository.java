@@ -1,12 +1,18 @@
 package fr.utc.sr03.ChatSR03Admin.repository;
 
+import fr.utc.sr03.ChatSR03Admin.dto.ChatSummaryDto;
 import fr.utc.sr03.ChatSR03Admin.entity.Chat;
-import fr.utc.sr03.ChatSR03Admin.entity.User;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.lang.NonNull;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -23,7 +29,7 @@ public interface ChatRepository extends JpaRepository<Chat, Integer> {
      */
     @Override
     @NonNull
-    Chat save(@NonNull Chat chat);
+    <S extends Chat> S save(@NonNull S chat);
 
     /*
 
@@ -71,20 +77,90 @@ public interface ChatRepository extends JpaRepository<Chat, Integer> {
     List<Chat> findByGuestId(@Param("guestId") Integer guestId, @Param("currentDate") Date currentDate);
 
     /**
-     * Finds guests by chat ID.
+     * Finds a page of the chats a user owns or is invited to and that have not expired, ordered by ID.
+     * The page is computed by the database: only its rows are read, plus one to detect the next page.
+     * The owned chats and the chats the user is invited to are read by two branches of a {@code UNION},
+     * each able to seek its own index from {@code afterId}, rather than by an {@code OR} that scans the chats.
+     *
+     * @param userId      the ID of the user.
+     * @param currentDate the current date to check expiration.
+     * @param afterId     the ID of the last chat of the previous page, 0 to start from the first chat.
+     * @param pageable    the page, unsorted.
+     * @return a slice of chat summaries.
+     */
+    @Transactional(readOnly = true)
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.ChatSummaryDto(c.idChat, c.title, c.description, c.dateCreation, c.dateExpiration, c.ownerId) " +
+            "FROM Chat c " +
+            "WHERE c.ownerId = :userId " +
+            "AND (c.dateExpiration IS NULL OR c.dateExpiration > :currentDate) " +
+            "AND c.idChat > :afterId " +
+            "UNION " +
+            "SELECT new fr.utc.sr03.ChatSR03Admin.dto.ChatSummaryDto(c.idChat, c.title, c.description, c.dateCreation, c.dateExpiration, c.ownerId) " +
+            "FROM Invitation i JOIN i.chat c " +
+            "WHERE i.user.idUser = :userId " +
+            "AND (c.dateExpiration IS NULL OR c.dateExpiration > :currentDate) " +
+            "AND c.idChat > :afterId " +
+            "ORDER BY 1")
+    Slice<ChatSummaryDto> findVisibleByUserId(@Param("userId") Integer userId,
+                                              @Param("currentDate") Date currentDate,
+                                              @Param("afterId") Integer afterId,
+                                              Pageable pageable);
+
+    /**
+     * Finds the chats expiring within a time window.
+     *
+     * @param from the start of the window, exclusive.
+     * @param to   the end of the window, inclusive.
+     * @return the chats whose expiration date is in the window.
+     */
+    @Query("SELECT c FROM Chat c WHERE c.dateExpiration > :from AND c.dateExpiration <= :to")
+    List<Chat> findExpiringBetween(@Param("from") Date from, @Param("to") Date to);
+
+    /**
+     * Finds the IDs of the oldest expired chats.
+     *
+     * @param now   the current date.
+     * @param limit the maximum number of IDs.
+     * @return the IDs of the chats expired at the given date, oldest expiration first.
+     */
+    @Query("SELECT c.idChat FROM Chat c WHERE c.dateExpiration <= :now ORDER BY c.dateExpiration")
+    List<Integer> findExpiredIds(@Param("now") Date now, Limit limit);
+
+    /**
+     * Counts the expired chats.
+     *
+     * @param now the current date.
+     * @return the number of chats expired at the given date.
+     */
+    @Query("SELECT COUNT(c) FROM Chat c WHERE c.dateExpiration <= :now")
+    long countExpired(@Param("now") Date now);
+
+    /**
+     * Deletes some chats with a single statement.
+     *
+     * @param chatIds the IDs of the chats.
+     * @return the number of chats deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Chat c WHERE c.idChat IN :chatIds")
+    int deleteByIdIn(@Param("chatIds") Collection<Integer> chatIds);
+
+    /**
+     * Finds the IDs of the guests of a chat.
      *
      * @param chatId the ID of the chat.
-     * @return a list of users who are guests in the specified chat.
+     * @return the IDs of the users invited to the specified chat.
      */
-    @Query("SELECT u FROM User u INNER JOIN Invitation i ON u.idUser = i.user.idUser WHERE i.chat.idChat = :chatId")
-    List<User> findGuestByChatId(Integer chatId);
+    @Query("SELECT i.user.idUser FROM Invitation i WHERE i.chat.idChat = :chatId")
+    List<Integer> findGuestIdsByChatId(@Param("chatId") Integer chatId);
 
     /**
-     * Finds the owner of a chat by chat ID.
+     * Finds the ID of the owner of a chat.
      *
      * @param chatId the ID of the chat.
-     * @return the user who owns the specified chat.
+     * @return the ID of the owner, or null if the chat does not exist.
      */
-    @Query("SELECT u FROM User u INNER JOIN Chat c ON c.ownerId = u.idUser WHERE c.idChat = :chatId")
-    User findOwnerByChatId(Integer chatId);
+    @Query("SELECT c.ownerId FROM Chat c WHERE c.idChat = :chatId")
+    Integer findOwnerIdByChatId(@Param("chatId") Integer chatId);
 }
@@ -4,8 +4,13 @@ import fr.utc.sr03.ChatSR03Admin.entity.Chat;
 import fr.utc.sr03.ChatSR03Admin.entity.Invitation;
 import fr.utc.sr03.ChatSR03Admin.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.lang.NonNull;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -21,7 +26,7 @@ public interface InvitationRepository extends JpaRepository<Invitation, Integer>
      */
     @Override
     @NonNull
-    Invitation save(@NonNull Invitation invitation);
+    <S extends Invitation> S save(@NonNull S invitation);
 
     /**
      * Finds all invitations by chat.
@@ -32,6 +37,66 @@ public interface InvitationRepository extends JpaRepository<Invitation, Integer>
     List<Invitation> findByChat(Chat chat);
 
     Invitation findByChatAndUser(Chat c, User u);
+
+    /**
+     * Invites a user to a chat with a single statement, unless the user is already invited.
+     * Nothing is inserted if the chat or the user does not exist.
+     *
+     * @param chatId the ID of the chat.
+     * @param userId the ID of the user.
+     * @return the number of invitations created, 0 or 1.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO Invitation (id_chat, id_user) SELECT c.id, u.id FROM Chat c, `User` u"
+            + " WHERE c.id = :chatId AND u.id = :userId"
+            + " AND NOT EXISTS (SELECT 1 FROM Invitation i WHERE i.id_chat = :chatId AND i.id_user = :userId)", nativeQuery = true)
+    int insertIfAbsent(@Param("chatId") Integer chatId, @Param("userId") Integer userId);
+
+    /**
+     * Retrieves which of some users are already invited to a chat.
+     *
+     * @param chatId  the ID of the chat.
+     * @param userIds the IDs of the users.
+     * @return the IDs of the users invited.
+     */
+    @Query("SELECT i.user.idUser FROM Invitation i WHERE i.chat.idChat = :chatId AND i.user.idUser IN :userIds")
+    List<Integer> findInvitedUserIds(@Param("chatId") Integer chatId, @Param("userIds") Collection<Integer> userIds);
+
+    /**
+     * Deletes all the invitations of a chat with a single statement.
+     *
+     * @param chatId the ID of the chat.
+     * @return the number of invitations deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Invitation i WHERE i.chat.idChat = :chatId")
+    int deleteByChatId(@Param("chatId") Integer chatId);
+
+    /**
+     * Deletes the invitations of some users to a chat with a single statement.
+     *
+     * @param chatId  the ID of the chat.
+     * @param userIds the IDs of the users.
+     * @return the number of invitations deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Invitation i WHERE i.chat.idChat = :chatId AND i.user.idUser IN :userIds")
+    int deleteByChatIdAndUserIds(@Param("chatId") Integer chatId, @Param("userIds") Collection<Integer> userIds);
+
+    /**
+     * Deletes all the invitations of some chats with a single statement.
+     *
+     * @param chatIds the IDs of the chats.
+     * @return the number of invitations deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Invitation i WHERE i.chat.idChat IN :chatIds")
+    int deleteByChatIds(@Param("chatIds") Collection<Integer> chatIds);
+
     /**
      * Deletes an invitation entity.
      *
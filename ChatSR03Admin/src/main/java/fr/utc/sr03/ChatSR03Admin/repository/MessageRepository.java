@@ -0,0 +1,79 @@
+package fr.utc.sr03.ChatSR03Admin.repository;
+
+import fr.utc.sr03.ChatSR03Admin.dto.MessageDto;
+import fr.utc.sr03.ChatSR03Admin.entity.Message;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository interface for managing Message entities.
+ * Messages are written in batches by {@link fr.utc.sr03.ChatSR03Admin.service.MessageWriteBehind}.
+ * <p>
+ * History reads use keyset pagination on the (id_chat, id) index: every page is a range scan
+ * starting at the cursor, whatever its depth in the chat.
+ */
+public interface MessageRepository extends JpaRepository<Message, Long> {
+
+    /**
+     * Finds the newest messages of a chat.
+     *
+     * @param chatId the ID of the chat.
+     * @param limit  the maximum number of messages.
+     * @return the messages, newest first.
+     */
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.MessageDto(m.idMessage, m.senderId, m.sequence, m.sentAt, m.body) " +
+            "FROM Message m WHERE m.chatId = :chatId ORDER BY m.idMessage DESC")
+    List<MessageDto> findLatest(@Param("chatId") Integer chatId, Limit limit);
+
+    /**
+     * Finds the messages of a chat older than a cursor.
+     *
+     * @param chatId the ID of the chat.
+     * @param before the cursor, exclusive.
+     * @param limit  the maximum number of messages.
+     * @return the messages, newest first.
+     */
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.MessageDto(m.idMessage, m.senderId, m.sequence, m.sentAt, m.body) " +
+            "FROM Message m WHERE m.chatId = :chatId AND m.idMessage < :before ORDER BY m.idMessage DESC")
+    List<MessageDto> findBefore(@Param("chatId") Integer chatId, @Param("before") Long before, Limit limit);
+
+    /**
+     * Finds the messages of a chat newer than a cursor.
+     *
+     * @param chatId the ID of the chat.
+     * @param after  the cursor, exclusive.
+     * @param limit  the maximum number of messages.
+     * @return the messages, oldest first.
+     */
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.MessageDto(m.idMessage, m.senderId, m.sequence, m.sentAt, m.body) " +
+            "FROM Message m WHERE m.chatId = :chatId AND m.idMessage > :after ORDER BY m.idMessage ASC")
+    List<MessageDto> findAfter(@Param("chatId") Integer chatId, @Param("after") Long after, Limit limit);
+
+    /**
+     * Finds the last sequence number of the messages of a chat.
+     *
+     * @param chatId the ID of the chat.
+     * @return the highest sequence, 0 if the chat has no message.
+     */
+    @Query("SELECT COALESCE(MAX(m.sequence), 0) FROM Message m WHERE m.chatId = :chatId")
+    long findLastSequence(@Param("chatId") Integer chatId);
+
+    /**
+     * Deletes at most {@code limit} messages of some chats, so a long history is deleted by short statements.
+     *
+     * @param chatIds the IDs of the chats.
+     * @param limit   the maximum number of messages.
+     * @return the number of messages deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM Message WHERE id_chat IN (:chatIds) LIMIT :limit", nativeQuery = true)
+    int deleteByChatIds(@Param("chatIds") Collection<Integer> chatIds, @Param("limit") int limit);
+}
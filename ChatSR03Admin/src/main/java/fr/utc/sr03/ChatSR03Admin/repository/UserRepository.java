@@ -1,10 +1,24 @@
 package fr.utc.sr03.ChatSR03Admin.repository;
 
+import fr.utc.sr03.ChatSR03Admin.datasource.HibernateCacheConfiguration;
+import fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto;
 import fr.utc.sr03.ChatSR03Admin.entity.User;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.lang.NonNull;
 import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Repository interface for managing User entities.
@@ -19,7 +33,7 @@ public interface UserRepository extends JpaRepository<User, Integer> {
      */
     @Override
     @NonNull
-    User save(@NonNull User user);
+    <S extends User> S save(@NonNull S user);
 
     /**
      * Finds a user by their email.
@@ -27,6 +41,10 @@ public interface UserRepository extends JpaRepository<User, Integer> {
      * @param email the email of the user to find.
      * @return the user with the specified email.
      */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = HibernateCacheConfiguration.USER_BY_EMAIL_REGION)
+    })
     User findByEmail(String email);
 
     /**
@@ -53,8 +71,9 @@ public interface UserRepository extends JpaRepository<User, Integer> {
      * @param pageable the pagination information.
      * @return a list of all activated users.
      */
+    @Transactional(readOnly = true)
     @NonNull
-    Page<User> findAllByIsActivatedTrue(Pageable pageable);
+    Slice<User> findAllByIsActivatedTrue(Pageable pageable);
 
     /**
      * Finds all deactivated users.
@@ -62,42 +81,65 @@ public interface UserRepository extends JpaRepository<User, Integer> {
      * @param pageable the pagination information.
      * @return a list of all deactivated users.
      */
+    @Transactional(readOnly = true)
     @NonNull
-    Page<User> findAllByIsActivatedFalse(Pageable pageable);
+    Slice<User> findAllByIsActivatedFalse(Pageable pageable);
 
     /**
-     * Finds all users by activation status and matching either the first name or the last name (case-insensitive).
+     * Finds the public view of the given users, without reading their credentials.
      *
-     * @param isActivated  the activation status of the user.
-     * @param firstName    the first name to search for (case-insensitive).
-     * @param isActivated2 the activation status of the user (used for the last name search).
-     * @param lastName     the last name to search for (case-insensitive).
-     * @param pageable     the pagination information.
-     * @return a paginated list of users matching the specified activation status and either the first name or the last name.
+     * @param ids the IDs of the users.
+     * @return the participants found, in no particular order.
      */
-    @NonNull
-    Page<User> findByIsActivatedAndFirstNameContainingIgnoreCaseOrIsActivatedAndLastNameContainingIgnoreCase(
-            boolean isActivated,
-            String firstName,
-            boolean isActivated2,
-            String lastName,
-            Pageable pageable
-    );
+    @Transactional(readOnly = true)
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto(u.idUser, u.firstName, u.lastName, u.email, u.isAdmin, u.isActivated) " +
+            "FROM User u WHERE u.idUser IN :ids")
+    List<ParticipantDto> findParticipantsByIds(@Param("ids") Collection<Integer> ids);
 
     /**
-     * Finds all users by matching either the first name or the last name (case-insensitive).
+     * Finds a page of the public view of the users, ordered by ID, after a cursor.
      *
-     * @param firstName the first name to search for (case-insensitive).
-     * @param lastName  the last name to search for (case-insensitive).
-     * @param pageable  the pagination information.
-     * @return a paginated list of users matching either the first name or the last name.
+     * @param afterId the ID of the last user of the previous page, 0 to start from the first user.
+     * @param limit   the maximum number of users.
+     * @return the users of the page.
      */
-    @NonNull
-    Page<User> findByFirstNameContainingIgnoreCaseOrLastNameContainingIgnoreCase(
-            String firstName,
-            String lastName,
-            Pageable pageable
-    );
+    @Transactional(readOnly = true)
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto(u.idUser, u.firstName, u.lastName, u.email, u.isAdmin, u.isActivated) " +
+            "FROM User u WHERE u.idUser > :afterId ORDER BY u.idUser")
+    List<ParticipantDto> findPageAfter(@Param("afterId") Integer afterId, Limit limit);
+
+    /**
+     * Streams the public view of every user, ordered by ID, from a database cursor.
+     * Must be consumed and closed within a transaction.
+     *
+     * @return the stream of users.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto(u.idUser, u.firstName, u.lastName, u.email, u.isAdmin, u.isActivated) " +
+            "FROM User u ORDER BY u.idUser")
+    Stream<ParticipantDto> streamAll();
+
+    /**
+     * Streams every user entity, ordered by ID, from a database cursor, bypassing the second-level cache.
+     * Must be consumed and closed within a transaction, detaching each user once read.
+     *
+     * @return the stream of users.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_MODE, value = "IGNORE")
+    })
+    @Query("SELECT u FROM User u ORDER BY u.idUser")
+    Stream<User> streamAllUsers();
+
+    /**
+     * Finds which of the given IDs belong to a user.
+     *
+     * @param ids the IDs to check.
+     * @return the IDs of the existing users.
+     */
+    @Query("SELECT u.idUser FROM User u WHERE u.idUser IN :ids")
+    List<Integer> findExistingIds(@Param("ids") Collection<Integer> ids);
 
     /**
      * Deletes a user by their ID.
@@ -0,0 +1,35 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers the side effects of a write, such as the update of an in-memory index or cache, until the transaction
+ * commits, so a rolled back write does not reach them.
+ * <p>
+ * The connection of the transaction is still bound while the callbacks run: a callback writing to the database
+ * must start its own transaction with {@code PROPAGATION_REQUIRES_NEW}.
+ */
+public final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    /**
+     * Runs a change once the current transaction commits, or right away outside of a transaction.
+     *
+     * @param change the change to run.
+     */
+    public static void run(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+}
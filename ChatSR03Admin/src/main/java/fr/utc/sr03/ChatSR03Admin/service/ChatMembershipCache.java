@@ -0,0 +1,136 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.utc.sr03.ChatSR03Admin.datasource.ReadWriteRoutingDataSource;
+import fr.utc.sr03.ChatSR03Admin.repository.ChatRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process cache of the owner and guests of each chat.
+ * <p>
+ * Membership only changes through the invitation, chat and user mutations, which call the
+ * {@code invalidate} methods once their change is committed. Entries also expire after
+ * {@code chat.membership.cache.ttlSeconds} and the least used ones are evicted beyond
+ * {@code chat.membership.cache.maxSize}, as a safety net for changes made outside the application.
+ * <p>
+ * A miss is loaded outside of the cache: a loader run by {@link Cache#get} would wait on the database inside
+ * a {@code ConcurrentHashMap} bin lock, pinning the virtual thread that asked. The loaded value is only cached
+ * if no invalidation happened during the load, so a change committed meanwhile is never hidden. Loads read
+ * the primary: a replica lagging behind the change that invalidated the entry would have it cached again
+ * without the change for the whole time to live.
+ * <p>
+ * Hits, misses and evictions are published as the {@code cache.*} Micrometer meters tagged
+ * {@code cache=chat.membership}.
+ */
+@Component
+public class ChatMembershipCache {
+
+    /**
+     * Participants of a chat.
+     *
+     * @param ownerId  the ID of the owner, null if the chat does not exist.
+     * @param guestIds the IDs of the invited users.
+     */
+    public record ChatMembership(Integer ownerId, Set<Integer> guestIds) {
+
+        /**
+         * Checks whether a user owns or is invited to the chat.
+         *
+         * @param idUser the user ID.
+         * @return true if the user participates in the chat.
+         */
+        public boolean contains(Integer idUser) {
+            return idUser.equals(ownerId) || guestIds.contains(idUser);
+        }
+
+        /**
+         * Retrieves the owner and the guests.
+         *
+         * @return the IDs of the participants.
+         */
+        public Set<Integer> members() {
+            Set<Integer> members = new LinkedHashSet<>(guestIds);
+            if (ownerId != null) {
+                members.add(ownerId);
+            }
+            return members;
+        }
+    }
+
+    private final ChatRepository chatRepository;
+
+    private final Cache<Integer, ChatMembership> cache;
+
+    /** Number of invalidations so far, a load started before the last one is not cached. */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ChatMembershipCache(ChatRepository chatRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${chat.membership.cache.maxSize:10000}") long maxSize,
+                               @Value("${chat.membership.cache.ttlSeconds:600}") long ttlSeconds) {
+        this.chatRepository = chatRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.membership");
+    }
+
+    /**
+     * Retrieves the participants of a chat, loading them on a miss.
+     *
+     * @param idChat the chat ID.
+     * @return the participants of the chat.
+     */
+    public ChatMembership get(Integer idChat) {
+        ChatMembership membership = cache.getIfPresent(idChat);
+        if (membership != null) {
+            return membership;
+        }
+        long generation = invalidations.get();
+        ChatMembership loaded = load(idChat);
+        ChatMembership cached = cache.asMap().compute(idChat, (id, current) ->
+                current == null && generation == invalidations.get() ? loaded : current);
+        return cached != null ? cached : loaded;
+    }
+
+    /**
+     * Drops the participants of a chat after its creation, an invitation, an uninvitation or its deletion.
+     *
+     * @param idChat the chat ID.
+     */
+    public void invalidate(Integer idChat) {
+        invalidations.incrementAndGet();
+        cache.invalidate(idChat);
+    }
+
+    /**
+     * Drops the chats a deleted user participated in. Only the cached entries are scanned, the others
+     * will be loaded without the user.
+     *
+     * @param idUser the user ID.
+     */
+    public void invalidateUser(Integer idUser) {
+        invalidations.incrementAndGet();
+        cache.asMap().values().removeIf(membership -> membership.contains(idUser));
+    }
+
+    private ChatMembership load(Integer idChat) {
+        return ReadWriteRoutingDataSource.readOnPrimary(() -> {
+            Integer ownerId = chatRepository.findOwnerIdByChatId(idChat);
+            Set<Integer> guestIds = new LinkedHashSet<>(chatRepository.findGuestIdsByChatId(idChat));
+            return new ChatMembership(ownerId, Collections.unmodifiableSet(guestIds));
+        });
+    }
+}
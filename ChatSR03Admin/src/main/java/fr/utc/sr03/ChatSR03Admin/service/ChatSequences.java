@@ -0,0 +1,87 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Numbering of the messages of each chat, shared by every node through the {@code ChatSequence} table.
+ * <p>
+ * A number is taken by incrementing the row of the chat and reading it back in the same transaction, on the
+ * primary: the row stays locked until the commit, so two nodes never give the same number and the numbers
+ * follow the order in which they were taken. The row of a chat is created on its first message, from the
+ * last number found in the {@link MessageStore}, so the numbering of the messages written before this table
+ * goes on.
+ */
+@Component
+public class ChatSequences {
+
+    private static final String INCREMENT_SQL = "UPDATE ChatSequence SET last_sequence = last_sequence + 1 WHERE id_chat = ?";
+
+    private static final String INSERT_SQL = "INSERT INTO ChatSequence (id_chat, last_sequence) VALUES (?, ?)";
+
+    private static final String SELECT_SQL = "SELECT last_sequence FROM ChatSequence WHERE id_chat = ?";
+
+    private static final String DELETE_SQL = "DELETE FROM ChatSequence WHERE id_chat IN (%s)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MessageStore messageStore;
+
+    public ChatSequences(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, MessageStore messageStore) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.messageStore = messageStore;
+    }
+
+    /**
+     * Takes the next number of a chat.
+     *
+     * @param chatId the chat ID.
+     * @return the sequence number, unique in the chat across the nodes.
+     */
+    public long next(Integer chatId) {
+        Long next = transactionTemplate.execute(status -> {
+            if (jdbcTemplate.update(INCREMENT_SQL, chatId) == 0) {
+                try {
+                    jdbcTemplate.update(INSERT_SQL, chatId, messageStore.findLastSequence(chatId) + 1);
+                } catch (DuplicateKeyException e) {
+                    // Created by another node in the meantime
+                    jdbcTemplate.update(INCREMENT_SQL, chatId);
+                }
+            }
+            return jdbcTemplate.queryForObject(SELECT_SQL, Long.class, chatId);
+        });
+        return next != null ? next : 0;
+    }
+
+    /**
+     * Retrieves the last number given in a chat, by any node.
+     *
+     * @param chatId the chat ID.
+     * @return the last sequence number, 0 if the chat has no message.
+     */
+    public long current(Integer chatId) {
+        List<Long> last = jdbcTemplate.queryForList(SELECT_SQL, Long.class, chatId);
+        return last.isEmpty() ? messageStore.findLastSequence(chatId) : last.get(0);
+    }
+
+    /**
+     * Deletes the numbering of deleted or purged chats, with their rows.
+     *
+     * @param chatIds the IDs of the chats.
+     */
+    public void deleteChats(Collection<Integer> chatIds) {
+        if (!chatIds.isEmpty()) {
+            jdbcTemplate.update(String.format(DELETE_SQL, String.join(",", Collections.nCopies(chatIds.size(), "?"))),
+                    chatIds.toArray());
+        }
+    }
+}
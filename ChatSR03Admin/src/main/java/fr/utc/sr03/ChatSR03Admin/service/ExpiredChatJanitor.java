@@ -0,0 +1,332 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.repository.ChatRepository;
+import fr.utc.sr03.ChatSR03Admin.repository.InvitationRepository;
+import fr.utc.sr03.ChatSR03Admin.websocket.WebSocketServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background janitor of the expired chats.
+ * <p>
+ * The chats expiring within {@code chat.janitor.horizonMillis} are kept in a priority queue ordered by
+ * {@link Chat#getDateExpiration()}. A dedicated thread sleeps until the head deadline and closes the
+ * WebSocket sessions of the chat at that moment. The queue is refilled from the database every
+ * {@code chat.janitor.refillMillis}, and updated directly when a chat is created, modified or deleted.
+ * <p>
+ * Independently, the expired chats are purged with their invitations and messages every
+ * {@code chat.janitor.purgeIntervalMillis}, oldest first, by batches of at most {@code chat.janitor.batchSize}
+ * chats, so a large backlog never holds long locks: the messages of a batch are deleted first by the
+ * {@link MessageStore} in bounded statements, then the invitations and chats in one transaction.
+ * {@link #deleteChat(Integer)} removes a single chat the same way when it is deleted through the API.
+ * <p>
+ * Meters: {@code chat.janitor.scheduled} (deadlines waiting), {@code chat.janitor.backlog} (expired chats
+ * not purged yet, as of the last run), {@code chat.janitor.purged} and {@code chat.janitor.sessions.closed}.
+ */
+@Component
+public class ExpiredChatJanitor implements SmartLifecycle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpiredChatJanitor.class);
+
+    private static final String CLOSE_REASON = "Chat expired";
+
+    private static final String DELETE_REASON = "Chat deleted";
+
+    /**
+     * Expiration of a chat waiting in the queue.
+     */
+    private record Deadline(Integer idChat, long expiresAt) {
+    }
+
+    private final ChatRepository chatRepository;
+    private final InvitationRepository invitationRepository;
+    private final MessageStore messageStore;
+    private final ChatSequences chatSequences;
+    private final ChatMembershipCache membershipCache;
+    private final ResourceVersions resourceVersions;
+    private final WebSocketServer webSocketServer;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final long horizonMillis;
+    private final int batchSize;
+    private final int maxBatches;
+    private final boolean purge;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>(Comparator.comparingLong(Deadline::expiresAt));
+    /** Current deadline of each queued chat, the queue entries that do not match it are stale. */
+    private final Map<Integer, Long> scheduled = new HashMap<>();
+
+    private final AtomicLong backlog = new AtomicLong();
+    private final Counter purged;
+    private final Counter sessionsClosed;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public ExpiredChatJanitor(ChatRepository chatRepository,
+                              InvitationRepository invitationRepository,
+                              MessageStore messageStore,
+                              ChatSequences chatSequences,
+                              ChatMembershipCache membershipCache,
+                              ResourceVersions resourceVersions,
+                              WebSocketServer webSocketServer,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.janitor.horizonMillis:900000}") long horizonMillis,
+                              @Value("${chat.janitor.batchSize:100}") int batchSize,
+                              @Value("${chat.janitor.maxBatches:50}") int maxBatches,
+                              @Value("${chat.janitor.purge:true}") boolean purge) {
+        this.chatRepository = chatRepository;
+        this.invitationRepository = invitationRepository;
+        this.messageStore = messageStore;
+        this.chatSequences = chatSequences;
+        this.membershipCache = membershipCache;
+        this.resourceVersions = resourceVersions;
+        this.webSocketServer = webSocketServer;
+        this.transactionTemplate = transactionTemplate;
+        this.horizonMillis = horizonMillis;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.purge = purge;
+        this.meterRegistry = meterRegistry;
+        this.purged = meterRegistry.counter("chat.janitor.purged");
+        this.sessionsClosed = meterRegistry.counter("chat.janitor.sessions.closed");
+    }
+
+    /**
+     * Registers the gauges once the janitor is built.
+     */
+    @PostConstruct
+    public void registerMeters() {
+        meterRegistry.gauge("chat.janitor.scheduled", this, ExpiredChatJanitor::getScheduledCount);
+        meterRegistry.gauge("chat.janitor.backlog", backlog);
+    }
+
+    /**
+     * Schedules the closing of a chat at its expiration date, replacing its previous deadline.
+     * Chats expiring beyond the horizon are picked up by a later refill.
+     *
+     * @param idChat         the chat ID.
+     * @param dateExpiration the expiration date, null if the chat never expires.
+     */
+    public void schedule(Integer idChat, Date dateExpiration) {
+        if (dateExpiration == null || dateExpiration.getTime() > System.currentTimeMillis() + horizonMillis) {
+            unschedule(idChat);
+            return;
+        }
+        lock.lock();
+        try {
+            Long previous = scheduled.put(idChat, dateExpiration.getTime());
+            if (previous == null || previous != dateExpiration.getTime()) {
+                deadlines.add(new Deadline(idChat, dateExpiration.getTime()));
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the deadline of a chat, when it is deleted or no longer expires soon.
+     * Its queue entry is skipped when it reaches the head.
+     *
+     * @param idChat the chat ID.
+     */
+    public void unschedule(Integer idChat) {
+        lock.lock();
+        try {
+            scheduled.remove(idChat);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the chats expiring within the horizon.
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${chat.janitor.refillMillis:300000}")
+    public void refill() {
+        long now = System.currentTimeMillis();
+        List<Chat> chats = chatRepository.findExpiringBetween(new Date(now), new Date(now + horizonMillis));
+        for (Chat chat : chats) {
+            schedule(chat.getIdChat(), chat.getDateExpiration());
+        }
+        LOGGER.debug("{} chats expirant dans les {} ms planifiés", chats.size(), horizonMillis);
+    }
+
+    /**
+     * Deletes the expired chats with their invitations and messages, by bounded batches.
+     */
+    @Scheduled(fixedDelayString = "${chat.janitor.purgeIntervalMillis:60000}")
+    public void purgeExpired() {
+        if (!purge) {
+            return;
+        }
+        Date now = new Date();
+        int total = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            List<Integer> ids = purgeBatch(now);
+            if (ids.isEmpty()) {
+                break;
+            }
+            for (Integer idChat : ids) {
+                unschedule(idChat);
+                membershipCache.invalidate(idChat);
+                // Bulk delete, the entity listeners do not see it; the chat lists already dropped it at expiry
+                resourceVersions.chatChanged(idChat, List.of());
+            }
+            total += ids.size();
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        backlog.set(chatRepository.countExpired(now));
+        if (total > 0) {
+            LOGGER.info("{} chats expirés supprimés, {} restants", total, backlog.get());
+        }
+    }
+
+    /**
+     * Deletes a chat now: closes its sessions on every node, then deletes its messages, invitations and row
+     * like the purge does.
+     *
+     * @param idChat the chat ID.
+     * @return false if the chat did not exist.
+     */
+    public boolean deleteChat(Integer idChat) {
+        Set<Integer> members = membershipCache.get(idChat).members();
+        unschedule(idChat);
+        sessionsClosed.increment(webSocketServer.closeChat(idChat, DELETE_REASON));
+        List<Integer> ids = List.of(idChat);
+        messageStore.deleteChats(ids);
+        Integer deleted = transactionTemplate.execute(status -> deleteChatRows(ids));
+        membershipCache.invalidate(idChat);
+        // Bulk delete, the entity listeners do not see it
+        resourceVersions.chatChanged(idChat, members);
+        return deleted != null && deleted > 0;
+    }
+
+    /**
+     * Deletes one batch of the oldest expired chats, their messages first.
+     *
+     * @return the IDs of the chats deleted.
+     */
+    private List<Integer> purgeBatch(Date now) {
+        List<Integer> ids = chatRepository.findExpiredIds(now, Limit.of(batchSize));
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        messageStore.deleteChats(ids);
+        Integer deleted = transactionTemplate.execute(status -> deleteChatRows(ids));
+        purged.increment(deleted != null ? deleted : 0);
+        return ids;
+    }
+
+    /**
+     * Deletes the invitations, numbering and rows of chats whose messages are already deleted.
+     *
+     * @return the number of chats deleted.
+     */
+    private int deleteChatRows(List<Integer> ids) {
+        invitationRepository.deleteByChatIds(ids);
+        chatSequences.deleteChats(ids);
+        return chatRepository.deleteByIdIn(ids);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "chat-janitor");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Retrieves the number of chats whose expiration is scheduled.
+     *
+     * @return the number of deadlines.
+     */
+    public int getScheduledCount() {
+        lock.lock();
+        try {
+            return scheduled.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loop of the janitor thread: waits for the head deadline and closes the sessions of the expired chat.
+     */
+    private void run() {
+        while (running) {
+            Deadline due;
+            lock.lock();
+            try {
+                Deadline head = deadlines.peek();
+                long wait = head == null ? Long.MAX_VALUE : head.expiresAt() - System.currentTimeMillis();
+                if (head != null && wait <= 0) {
+                    deadlines.poll();
+                    Long current = scheduled.get(head.idChat());
+                    if (current == null || current != head.expiresAt()) {
+                        continue;
+                    }
+                    scheduled.remove(head.idChat());
+                    due = head;
+                } else {
+                    changed.awaitNanos(head == null ? TimeUnit.MINUTES.toNanos(1) : TimeUnit.MILLISECONDS.toNanos(wait));
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                resourceVersions.chatChanged(due.idChat(), membershipCache.get(due.idChat()).members());
+                sessionsClosed.increment(webSocketServer.closeChat(due.idChat(), CLOSE_REASON));
+            } catch (RuntimeException e) {
+                LOGGER.error("Impossible de fermer les sessions du chat expiré [{}] : {}", due.idChat(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.dto.InvitationBatchResultDto;
+import fr.utc.sr03.ChatSR03Admin.repository.InvitationRepository;
+import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Adds and removes the invitations of a chat in bulk, without loading any entity.
+ * <p>
+ * The users to invite are checked with one {@code IN} query, the ones already invited are skipped with
+ * another, then the others are inserted with a single JDBC batch of plain {@code INSERT}s, whose update
+ * counts give the number of invitations created. The row of the chat is locked first, so two batches of
+ * the same chat never insert the same invitation; any other error, such as a concurrent single invitation,
+ * fails the batch. Invitations are removed with one bulk {@code DELETE}. Both run in one transaction. The membership of the chat is dropped from the {@link ChatMembershipCache} once the
+ * transaction commits, so a concurrent read cannot cache the membership again from the old rows.
+ */
+@Component
+public class InvitationBatchWriter {
+
+    private static final String LOCK_CHAT_SQL = "SELECT id FROM Chat WHERE id = ? FOR UPDATE";
+
+    private static final String INSERT_SQL = "INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final UserRepository userRepository;
+
+    private final InvitationRepository invitationRepository;
+
+    private final ChatMembershipCache chatMembershipCache;
+
+    public InvitationBatchWriter(JdbcTemplate jdbcTemplate,
+                                 UserRepository userRepository,
+                                 InvitationRepository invitationRepository,
+                                 ChatMembershipCache chatMembershipCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.userRepository = userRepository;
+        this.invitationRepository = invitationRepository;
+        this.chatMembershipCache = chatMembershipCache;
+    }
+
+    /**
+     * Invites and uninvites users to an existing chat.
+     *
+     * @param chatId   the chat ID.
+     * @param invite   the IDs of the users to invite, may be null.
+     * @param uninvite the IDs of the users to uninvite, may be null.
+     * @return the number of invited and uninvited users, and the unknown IDs.
+     */
+    @Transactional
+    public InvitationBatchResultDto apply(Integer chatId, List<Integer> invite, List<Integer> uninvite) {
+        List<Integer> unknownUsers = new ArrayList<>();
+        int invited = 0;
+        if (invite != null && !invite.isEmpty()) {
+            jdbcTemplate.queryForList(LOCK_CHAT_SQL, Integer.class, chatId);
+            Set<Integer> requested = new LinkedHashSet<>(invite);
+            Set<Integer> existing = new HashSet<>(userRepository.findExistingIds(requested));
+            Set<Integer> alreadyInvited = existing.isEmpty() ? Set.of() : new HashSet<>(invitationRepository.findInvitedUserIds(chatId, existing));
+            List<Integer> userIds = new ArrayList<>(existing.size());
+            for (Integer userId : requested) {
+                if (!existing.contains(userId)) {
+                    unknownUsers.add(userId);
+                } else if (!alreadyInvited.contains(userId)) {
+                    userIds.add(userId);
+                }
+            }
+            int[][] counts = jdbcTemplate.batchUpdate(INSERT_SQL, userIds, userIds.size(), (ps, userId) -> {
+                ps.setInt(1, chatId);
+                ps.setInt(2, userId);
+            });
+            for (int[] batch : counts) {
+                for (int count : batch) {
+                    // A rewritten batch does not report the count of each row, but each one did insert its row
+                    invited += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+                }
+            }
+        }
+        int uninvited = 0;
+        if (uninvite != null && !uninvite.isEmpty()) {
+            uninvited = invitationRepository.deleteByChatIdAndUserIds(chatId, new HashSet<>(uninvite));
+        }
+        AfterCommit.run(() -> chatMembershipCache.invalidate(chatId));
+        return new InvitationBatchResultDto(invited, uninvited, unknownUsers);
+    }
+}
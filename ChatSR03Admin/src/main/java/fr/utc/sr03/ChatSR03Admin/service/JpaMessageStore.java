@@ -0,0 +1,77 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.dto.MessageDto;
+import fr.utc.sr03.ChatSR03Admin.entity.Message;
+import fr.utc.sr03.ChatSR03Admin.repository.MessageRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Message store keeping one row per message in the database.
+ * Writes go through the {@link MessageWriteBehind} pipeline, reads use the keyset queries of {@link MessageRepository}.
+ * The messages of deleted chats are removed by transactions of at most {@code chat.persistence.deleteBatchSize} rows.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaMessageStore implements MessageStore {
+
+    private final MessageWriteBehind messageWriteBehind;
+
+    private final MessageRepository messageRepository;
+
+    private final int deleteBatchSize;
+
+    public JpaMessageStore(MessageWriteBehind messageWriteBehind,
+                           MessageRepository messageRepository,
+                           @Value("${chat.persistence.deleteBatchSize:5000}") int deleteBatchSize) {
+        this.messageWriteBehind = messageWriteBehind;
+        this.messageRepository = messageRepository;
+        this.deleteBatchSize = deleteBatchSize;
+    }
+
+    @Override
+    public boolean append(Message message) {
+        return messageWriteBehind.enqueue(message);
+    }
+
+    @Override
+    public List<MessageDto> findLatest(Integer chatId, int limit) {
+        return messageRepository.findLatest(chatId, Limit.of(limit));
+    }
+
+    @Override
+    public List<MessageDto> findBefore(Integer chatId, long before, int limit) {
+        return messageRepository.findBefore(chatId, before, Limit.of(limit));
+    }
+
+    @Override
+    public List<MessageDto> findAfter(Integer chatId, long after, int limit) {
+        return messageRepository.findAfter(chatId, after, Limit.of(limit));
+    }
+
+    /**
+     * Also looks at the messages not written yet by the write-behind pipeline, before the table: a message
+     * leaves the pipeline only once it is in the table.
+     */
+    @Override
+    public long findLastSequence(Integer chatId) {
+        long pending = messageWriteBehind.findLastSequence(chatId);
+        return Math.max(pending, messageRepository.findLastSequence(chatId));
+    }
+
+    @Override
+    public int deleteChats(Collection<Integer> chatIds) {
+        int total = 0;
+        int deleted;
+        do {
+            deleted = messageRepository.deleteByChatIds(chatIds, deleteBatchSize);
+            total += deleted;
+        } while (deleted == deleteBatchSize);
+        return total;
+    }
+}
@@ -0,0 +1,195 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory-mapped segment file of the {@link SegmentLogMessageStore}.
+ * <p>
+ * Records are laid out as {@code [length:int][id:long][chatId:int][senderId:int][sequence:long][sentAt:long][bodyLength:int][body:utf-8]},
+ * {@code length} counting the bytes after itself. A zero length marks the end of the written part of the file.
+ * A single thread appends, readers only see the records below the published {@code committed} position.
+ */
+final class LogSegment {
+
+    static final int HEADER_BYTES = 40;
+
+    /**
+     * Receives the records read by {@link #scan(int, RecordVisitor)}.
+     */
+    interface RecordVisitor {
+        /**
+         * Visits a record. The body is a read-only view on the mapped file, nothing is copied.
+         * It is null for a message without body.
+         *
+         * @return false to stop the scan.
+         */
+        boolean visit(int position, long id, int chatId, int senderId, long sequence, long sentAt, ByteBuffer body);
+    }
+
+    private final Path path;
+    private final long baseId;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Set<Integer> chatIds = ConcurrentHashMap.newKeySet();
+    private volatile int committed;
+    private volatile long lastId;
+
+    private LogSegment(Path path, long baseId, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.baseId = baseId;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new empty segment.
+     *
+     * @param directory the directory of the log.
+     * @param baseId    the ID of the first record of the segment.
+     * @param size      the size of the segment file in bytes.
+     * @return the segment.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    static LogSegment create(Path directory, long baseId, int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d.log", baseId));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new LogSegment(path, baseId, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its written records.
+     *
+     * @param path    the segment file.
+     * @param visitor called for each recovered record, may be null.
+     * @return the segment.
+     * @throws IOException if the file cannot be opened or mapped.
+     */
+    static LogSegment open(Path path, RecordVisitor visitor) throws IOException {
+        String name = path.getFileName().toString();
+        long baseId = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(path, baseId, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        int[] end = new int[1];
+        segment.scan(0, segment.buffer.capacity(), (position, id, chatId, senderId, sequence, sentAt, body) -> {
+            segment.chatIds.add(chatId);
+            segment.lastId = id;
+            end[0] = position + HEADER_BYTES + (body == null ? 0 : body.remaining());
+            return visitor == null || visitor.visit(position, id, chatId, senderId, sequence, sentAt, body);
+        });
+        segment.committed = end[0];
+        return segment;
+    }
+
+    /**
+     * Appends a record at the end of the segment. Must be called by a single thread at a time.
+     *
+     * @return the position of the record, or -1 if the segment is full.
+     */
+    int append(long id, int chatId, int senderId, long sequence, long sentAt, byte[] body) {
+        int bodyLength = body == null ? -1 : body.length;
+        int size = HEADER_BYTES + Math.max(bodyLength, 0);
+        int position = committed;
+        if (position + size + 4 > buffer.capacity()) {
+            return -1;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.putInt(size - 4);
+        view.putLong(id);
+        view.putInt(chatId);
+        view.putInt(senderId);
+        view.putLong(sequence);
+        view.putLong(sentAt);
+        view.putInt(bodyLength);
+        if (body != null) {
+            view.put(body);
+        }
+        chatIds.add(chatId);
+        lastId = id;
+        // Publishing the new end makes the record visible to readers
+        committed = position + size;
+        return position;
+    }
+
+    /**
+     * Reads the committed records from a position.
+     *
+     * @param from    the position of the first record to read.
+     * @param visitor the visitor of the records.
+     * @return false if the visitor stopped the scan.
+     */
+    boolean scan(int from, RecordVisitor visitor) {
+        return scan(from, committed, visitor);
+    }
+
+    private boolean scan(int from, int end, RecordVisitor visitor) {
+        ByteBuffer view = buffer.duplicate();
+        int position = from;
+        while (position + HEADER_BYTES <= end) {
+            int length = view.getInt(position);
+            if (length <= 0 || position + 4 + length > end) {
+                break;
+            }
+            int bodyLength = view.getInt(position + 36);
+            ByteBuffer body = bodyLength < 0 ? null : view.slice(position + HEADER_BYTES, bodyLength).asReadOnlyBuffer();
+            if (!visitor.visit(position, view.getLong(position + 4), view.getInt(position + 12), view.getInt(position + 16),
+                    view.getLong(position + 20), view.getLong(position + 28), body)) {
+                return false;
+            }
+            position += 4 + length;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the modified pages of the segment to the disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Closes and deletes the segment file.
+     *
+     * @throws IOException if the file cannot be deleted.
+     */
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Closes the segment file after writing its pages to the disk.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    long getBaseId() {
+        return baseId;
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    boolean isEmpty() {
+        return committed == 0;
+    }
+
+    Set<Integer> getChatIds() {
+        return Collections.unmodifiableSet(chatIds);
+    }
+}
@@ -0,0 +1,164 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.datasource.ReadWriteRoutingDataSource;
+import fr.utc.sr03.ChatSR03Admin.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Login attempt counters of the users, counted in the database so that every node shares them.
+ * <p>
+ * A failure increments the counter of the user with {@code loginAttempts = loginAttempts + 1} and reads it back
+ * in the same transaction: the row stays locked until the commit, so of concurrent failures on any nodes exactly
+ * the {@code chat.loginAttempts.max}-th one deactivates the account, by a conditional {@code UPDATE} that only
+ * deactivates an account still activated. A success resets the counter with an {@code UPDATE} that only passes
+ * while the account is activated, so no success passes once it is locked.
+ * <p>
+ * A success reads the counter on the primary first and skips the write when it is already 0, which is the case
+ * of most logins. The successes of a user on this node are serialized by one of {@code chat.loginAttempts.stripes}
+ * locks, so concurrent ones write the reset once.
+ * <p>
+ * Every write evicts the user from the second-level cache of this node and moves its ETag; locking the account
+ * also updates the search index.
+ * <p>
+ * Meters: {@code chat.loginAttempts.failed} (failures counted) and {@code chat.loginAttempts.locked}.
+ */
+@Component
+public class LoginAttemptTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoginAttemptTracker.class);
+
+    private static final String INCREMENT_SQL = "UPDATE `User` SET loginAttempts = loginAttempts + 1 WHERE id = ?";
+
+    private static final String SELECT_SQL = "SELECT loginAttempts, isActivated FROM `User` WHERE id = ?";
+
+    private static final String LOCK_SQL = "UPDATE `User` SET isActivated = false WHERE id = ? AND isActivated = true";
+
+    private static final String RESET_SQL = "UPDATE `User` SET loginAttempts = 0 WHERE id = ? AND isActivated = true";
+
+    /**
+     * Login state of a user in the database.
+     */
+    private record State(int loginAttempts, boolean activated) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+    private final ResourceVersions resourceVersions;
+    private final UserSearchIndex userSearchIndex;
+    private final int maxAttempts;
+
+    private final ReentrantLock[] stripes;
+
+    private final Counter failed;
+    private final Counter locked;
+
+    public LoginAttemptTracker(JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               EntityManagerFactory entityManagerFactory,
+                               ResourceVersions resourceVersions,
+                               UserSearchIndex userSearchIndex,
+                               MeterRegistry meterRegistry,
+                               @Value("${chat.loginAttempts.max:3}") int maxAttempts,
+                               @Value("${chat.loginAttempts.stripes:64}") int stripeCount) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.entityManagerFactory = entityManagerFactory;
+        this.resourceVersions = resourceVersions;
+        this.userSearchIndex = userSearchIndex;
+        this.maxAttempts = maxAttempts;
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.failed = meterRegistry.counter("chat.loginAttempts.failed");
+        this.locked = meterRegistry.counter("chat.loginAttempts.locked");
+    }
+
+    /**
+     * Records a successful login and resets the counter of the user.
+     *
+     * @param user the user, as read from the database.
+     * @return false if the account has been locked in the meantime, the login must then be refused.
+     */
+    public boolean loginSucceeded(User user) {
+        int idUser = user.getIdUser();
+        ReentrantLock lock = stripe(idUser);
+        lock.lock();
+        try {
+            // The entity may come from the cache of this node, behind the failures counted by the others
+            State state = ReadWriteRoutingDataSource.readOnPrimary(() -> read(idUser));
+            if (state == null || !state.activated()) {
+                return false;
+            }
+            if (state.loginAttempts() == 0) {
+                return true;
+            }
+            if (jdbcTemplate.update(RESET_SQL, idUser) == 0) {
+                // Locked since the read
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        entityManagerFactory.getCache().evict(User.class, idUser);
+        resourceVersions.userCounterChanged(idUser);
+        return true;
+    }
+
+    /**
+     * Records a failed login and locks the account when the user reaches the maximum number of attempts.
+     *
+     * @param user the user, as read from the database.
+     * @return true if the account is locked.
+     */
+    public boolean loginFailed(User user) {
+        int idUser = user.getIdUser();
+        boolean[] lockedNow = new boolean[1];
+        State state = transactionTemplate.execute(status -> {
+            if (jdbcTemplate.update(INCREMENT_SQL, idUser) == 0) {
+                return null;
+            }
+            State counted = read(idUser);
+            if (counted.activated() && counted.loginAttempts() >= maxAttempts) {
+                lockedNow[0] = jdbcTemplate.update(LOCK_SQL, idUser) == 1;
+            }
+            return counted;
+        });
+        if (state == null) {
+            // Deleted in the meantime
+            return true;
+        }
+        failed.increment();
+        entityManagerFactory.getCache().evict(User.class, idUser);
+        if (!lockedNow[0]) {
+            resourceVersions.userCounterChanged(idUser);
+            return !state.activated();
+        }
+        userSearchIndex.put(idUser, user.getFirstName(), user.getLastName(), user.getEmail(), false);
+        resourceVersions.userEntityChanged(idUser);
+        locked.increment();
+        LOGGER.info("Compte [{}] désactivé après {} tentatives de connexion", idUser, state.loginAttempts());
+        return true;
+    }
+
+    private State read(int idUser) {
+        List<State> states = jdbcTemplate.query(SELECT_SQL,
+                (rs, rowNum) -> new State(rs.getInt(1), rs.getBoolean(2)), idUser);
+        return states.isEmpty() ? null : states.get(0);
+    }
+
+    private ReentrantLock stripe(int idUser) {
+        return stripes[Math.floorMod(idUser, stripes.length)];
+    }
+}
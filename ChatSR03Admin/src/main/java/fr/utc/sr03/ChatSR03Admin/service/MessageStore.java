@@ -0,0 +1,70 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.dto.MessageDto;
+import fr.utc.sr03.ChatSR03Admin.entity.Message;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage of the chat messages, written by the WebSocket layer and read by the history API.
+ * <p>
+ * The implementation is chosen with the {@code chat.store.type} property: {@code jpa} (default)
+ * stores one row per message, {@code segment-log} appends them to local memory-mapped segments.
+ * Message IDs are increasing within a store, so they can be used as keyset cursors.
+ */
+public interface MessageStore {
+
+    /**
+     * Stores a message without blocking the caller on I/O.
+     *
+     * @param message the message to store.
+     * @return true if the message was accepted, false if it was refused, for instance because it has no body.
+     */
+    boolean append(Message message);
+
+    /**
+     * Finds the newest messages of a chat.
+     *
+     * @param chatId the ID of the chat.
+     * @param limit  the maximum number of messages.
+     * @return the messages, newest first.
+     */
+    List<MessageDto> findLatest(Integer chatId, int limit);
+
+    /**
+     * Finds the messages of a chat older than a cursor.
+     *
+     * @param chatId the ID of the chat.
+     * @param before the cursor, exclusive.
+     * @param limit  the maximum number of messages.
+     * @return the messages, newest first.
+     */
+    List<MessageDto> findBefore(Integer chatId, long before, int limit);
+
+    /**
+     * Finds the messages of a chat newer than a cursor.
+     *
+     * @param chatId the ID of the chat.
+     * @param after  the cursor, exclusive.
+     * @param limit  the maximum number of messages.
+     * @return the messages, oldest first.
+     */
+    List<MessageDto> findAfter(Integer chatId, long after, int limit);
+
+    /**
+     * Finds the last sequence number given to a message of a chat, so the numbering goes on after a restart.
+     *
+     * @param chatId the ID of the chat.
+     * @return the highest {@link Message#getSequence()} stored for the chat, 0 if none.
+     */
+    long findLastSequence(Integer chatId);
+
+    /**
+     * Deletes the messages of deleted or purged chats, before the chat rows.
+     *
+     * @param chatIds the IDs of the chats.
+     * @return the number of messages deleted, 0 if the store reclaims them by itself.
+     */
+    int deleteChats(Collection<Integer> chatIds);
+}
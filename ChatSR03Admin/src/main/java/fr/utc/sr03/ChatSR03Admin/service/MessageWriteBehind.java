@@ -0,0 +1,312 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.entity.Message;
+import fr.utc.sr03.ChatSR03Admin.websocket.RoomExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous write-behind pipeline persisting chat messages.
+ * <p>
+ * The WebSocket threads only put messages in a bounded queue. A dedicated writer thread takes them
+ * off the queue and inserts them with JDBC batches, as soon as {@code batchSize} messages are waiting
+ * or {@code flushIntervalMillis} after the first message of the batch arrived.
+ * <p>
+ * Backpressure: when the queue is full, {@link #enqueue(Message)} waits at most
+ * {@code offerTimeoutMillis} (0 by default), then rejects the message and counts it as dropped.
+ * Live delivery is never delayed by the database. A message without a body, or whose body exceeds
+ * {@link Message#MAX_BODY_LENGTH}, is rejected at once rather than failing a whole batch.
+ * <p>
+ * When a batch fails, its messages are inserted again one by one: only the rows the database refuses are
+ * dead-lettered, logged and kept in a bounded list of {@code deadLetterCapacity} messages. If the database
+ * cannot be reached, the rest of the batch is counted as failed.
+ * <p>
+ * On shutdown the queue is drained and flushed before the application context closes the datasource. The
+ * pipeline stops in {@link #PHASE}, after the web server and the room shards ({@link RoomExecutors#PHASE}),
+ * so the messages received until the WebSocket endpoints close are still written.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.store.type", havingValue = "jpa", matchIfMissing = true)
+public class MessageWriteBehind implements SmartLifecycle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    /** Stop phase, after the room shards that append the messages. */
+    public static final int PHASE = RoomExecutors.PHASE - 1024;
+
+    private static final String INSERT_SQL = "INSERT INTO Message (id_chat, id_user, sequence, sentAt, body) VALUES (?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BlockingQueue<Message> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+    private final BlockingQueue<Message> deadLetters;
+    /** Highest sequence of each chat among the accepted messages not written yet, queued or in the current batch. */
+    private final ConcurrentMap<Integer, Long> pendingSequences = new ConcurrentHashMap<>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public MessageWriteBehind(JdbcTemplate jdbcTemplate,
+                              @Value("${chat.persistence.queueCapacity:10000}") int queueCapacity,
+                              @Value("${chat.persistence.batchSize:200}") int batchSize,
+                              @Value("${chat.persistence.flushIntervalMillis:200}") long flushIntervalMillis,
+                              @Value("${chat.persistence.offerTimeoutMillis:0}") long offerTimeoutMillis,
+                              @Value("${chat.persistence.deadLetterCapacity:1000}") int deadLetterCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.deadLetters = new ArrayBlockingQueue<>(Math.max(deadLetterCapacity, 1));
+    }
+
+    /**
+     * Queues a message to be persisted.
+     *
+     * @param message the message to persist.
+     * @return true if the message was queued, false if it was rejected because its body is missing or too long,
+     * or dropped because the queue is full or the pipeline is stopped.
+     */
+    public boolean enqueue(Message message) {
+        if (message.getBody() == null || message.getBody().isEmpty()) {
+            rejected.incrementAndGet();
+            LOGGER.error("Message du chat [{}] non persisté, corps vide", message.getChatId());
+            return false;
+        }
+        if (message.getBody().length() > Message.MAX_BODY_LENGTH) {
+            rejected.incrementAndGet();
+            LOGGER.error("Message du chat [{}] non persisté, corps de {} caractères (max {})",
+                    message.getChatId(), message.getBody().length(), Message.MAX_BODY_LENGTH);
+            return false;
+        }
+        boolean accepted = false;
+        if (running) {
+            // Recorded before the message can be taken off the queue, removed once it is written
+            pendingSequences.merge(message.getChatId(), message.getSequence(), Math::max);
+            try {
+                accepted = offerTimeoutMillis > 0
+                        ? queue.offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS)
+                        : queue.offer(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!accepted) {
+            long total = dropped.incrementAndGet();
+            LOGGER.error("Message du chat [{}] non persisté, file d'écriture pleine ({} messages perdus au total)", message.getChatId(), total);
+        }
+        return accepted;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        writer = new Thread(this::run, "message-write-behind");
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Write-behind arrêté : {} messages écrits, {} perdus, {} en échec, {} refusés, {} mis de côté",
+                written.get(), dropped.get(), failed.get(), rejected.get(), deadLettered.get());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Finds the last sequence number of the messages of a chat accepted but not written yet, whether they are
+     * still in the queue or in the batch being flushed. A message leaves this count only once its batch is
+     * written, so reading it before the database never misses an accepted message.
+     *
+     * @param chatId the ID of the chat.
+     * @return the highest pending sequence, 0 if none.
+     */
+    public long findLastSequence(Integer chatId) {
+        return pendingSequences.getOrDefault(chatId, 0L);
+    }
+
+    /**
+     * Retrieves the number of messages waiting to be written.
+     *
+     * @return the queue depth.
+     */
+    public int getBacklog() {
+        return queue.size();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Retrieves the last messages refused by the database.
+     *
+     * @return the dead-lettered messages, oldest first.
+     */
+    public List<Message> getDeadLetters() {
+        return List.copyOf(deadLetters);
+    }
+
+    /**
+     * Loop of the writer thread: collects batches by size or by time and flushes them.
+     * After {@link #stop()} the remaining messages are flushed without waiting.
+     */
+    private void run() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        long deadline = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            try {
+                long wait = batch.isEmpty() ? flushIntervalMillis : deadline - System.currentTimeMillis();
+                Message message = running && wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+                if (message != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + flushIntervalMillis;
+                    }
+                    batch.add(message);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                boolean due = batch.size() >= batchSize
+                        || System.currentTimeMillis() >= deadline
+                        || (!running && message == null);
+                if (!batch.isEmpty() && due) {
+                    flush(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch of messages, then forgets their sequences: they are now in the table, or failed.
+     *
+     * @param batch the messages to insert.
+     */
+    private void flush(List<Message> batch) {
+        try {
+            write(batch);
+        } finally {
+            Map<Integer, Long> flushed = new HashMap<>();
+            for (Message message : batch) {
+                flushed.merge(message.getChatId(), message.getSequence(), Math::max);
+            }
+            // A chat whose newer message is already queued keeps that one
+            flushed.forEach(pendingSequences::remove);
+        }
+    }
+
+    /**
+     * Inserts a batch of messages with a single JDBC batch, then one by one if the batch fails.
+     *
+     * @param batch the messages to insert.
+     */
+    private void write(List<Message> batch) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, message) -> {
+                ps.setInt(1, message.getChatId());
+                ps.setInt(2, message.getSenderId());
+                ps.setLong(3, message.getSequence());
+                ps.setTimestamp(4, new Timestamp(message.getSentAt().getTime()));
+                ps.setString(5, message.getBody());
+            });
+            written.addAndGet(batch.size());
+        } catch (DataAccessException e) {
+            LOGGER.warn("Echec de l'écriture groupée de {} messages, écriture un par un : {}", batch.size(), e.getMessage());
+            flushOneByOne(batch);
+        }
+    }
+
+    /**
+     * Inserts the messages of a failed batch one by one and dead-letters the ones the database refuses.
+     * Stops at the first error telling that the database cannot be reached.
+     *
+     * @param batch the messages to insert.
+     */
+    private void flushOneByOne(List<Message> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            try {
+                jdbcTemplate.update(INSERT_SQL, message.getChatId(), message.getSenderId(), message.getSequence(),
+                        new Timestamp(message.getSentAt().getTime()), message.getBody());
+                written.incrementAndGet();
+            } catch (DataAccessResourceFailureException | TransientDataAccessException e) {
+                failed.addAndGet(batch.size() - i);
+                LOGGER.error("Echec de l'écriture de {} messages : {}", batch.size() - i, e.getMessage());
+                return;
+            } catch (DataAccessException e) {
+                deadLetter(message, e);
+            }
+        }
+    }
+
+    /**
+     * Keeps a message refused by the database, dropping the oldest dead letter when the list is full.
+     */
+    private void deadLetter(Message message, DataAccessException e) {
+        deadLettered.incrementAndGet();
+        while (!deadLetters.offer(message)) {
+            deadLetters.poll();
+        }
+        LOGGER.error("Message [{}] du chat [{}] refusé par la base, mis de côté : {}",
+                message.getSequence(), message.getChatId(), e.getMessage());
+    }
+}
@@ -0,0 +1,35 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.entity.User;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * JPA entity listener bumping the {@link ResourceVersions} of the users and chats written through JPA,
+ * whichever controller writes them. Like {@link UserSearchIndexListener}, it applies the change once the
+ * transaction commits, so an ETag never moves on to a version that was rolled back.
+ */
+public class ResourceVersionListener {
+
+    private final ObjectProvider<ResourceVersions> resourceVersions;
+
+    public ResourceVersionListener(ObjectProvider<ResourceVersions> resourceVersions) {
+        this.resourceVersions = resourceVersions;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        if (entity instanceof User user) {
+            int idUser = user.getIdUser();
+            AfterCommit.run(() -> resourceVersions.getObject().userEntityChanged(idUser));
+        } else if (entity instanceof Chat chat) {
+            Integer idChat = chat.getIdChat();
+            AfterCommit.run(() -> resourceVersions.getObject().chatEntityChanged(idChat));
+        }
+    }
+}
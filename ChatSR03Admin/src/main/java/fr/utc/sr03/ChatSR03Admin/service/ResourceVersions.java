@@ -0,0 +1,346 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.datasource.ReadWriteRoutingDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Change counters of the REST resources, used to build their ETags without reading them.
+ * <p>
+ * Every write path bumps the counters of the resources it changes: a single chat or user, the participants
+ * of a chat, the chat list of a user, or all the participant lists when any user changes. The counters are
+ * rows of the {@code ResourceVersion} table, so every node sees the writes made through the others and the
+ * tags survive restarts. A bump is a single upsert incrementing the row, and the {@code If-Match} claims
+ * compare and increment it in the same statement, so of two updates sent with the same ETag to any nodes
+ * only the first one passes. The counters are always read on the primary, and written in their own
+ * transaction: the bumps are mostly made once the transaction of the change has committed, whose
+ * connection is still bound to the thread but will not commit again.
+ * <p>
+ * A counter moves on at commit, while a read-only transaction may read a replica lagging behind. The
+ * {@code ...ChangedRecently} methods tell when a resource changed within the tolerated replica lag plus one
+ * lag check, {@code chat.datasource.replica.maxLagMillis + checkMillis}: its body must then be read on the
+ * primary, otherwise a stale body would be cached by the client under the new ETag.
+ */
+@Component
+public class ResourceVersions {
+
+    private static final String USERS_KEY = "users";
+
+    private static final String BUMP_SQL = "INSERT INTO ResourceVersion (resource_key, version, changedAt) VALUES (?, 1, ?) " +
+            "ON DUPLICATE KEY UPDATE version = version + 1, changedAt = ?";
+
+    private static final String CLAIM_SQL = "UPDATE ResourceVersion SET version = version + 1, changedAt = ? " +
+            "WHERE resource_key = ? AND version = ?";
+
+    private static final String CLAIM_FIRST_SQL = "INSERT INTO ResourceVersion (resource_key, version, changedAt) VALUES (?, 1, ?)";
+
+    private static final String VERSIONS_SQL = "SELECT resource_key, version FROM ResourceVersion WHERE resource_key IN (%s)";
+
+    private static final String CHANGED_AT_SQL = "SELECT MAX(changedAt) FROM ResourceVersion WHERE resource_key IN (%s)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate ownTransaction;
+    private final long primaryReadMillis;
+
+    public ResourceVersions(JdbcTemplate jdbcTemplate,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${chat.datasource.replica.maxLagMillis:5000}") long maxLagMillis,
+                            @Value("${chat.datasource.replica.checkMillis:1000}") long checkMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ownTransaction = new TransactionTemplate(transactionManager);
+        this.ownTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.primaryReadMillis = maxLagMillis + checkMillis;
+    }
+
+    /**
+     * Builds the ETag of a chat.
+     *
+     * @param idChat the chat ID.
+     * @return the quoted, strong ETag.
+     */
+    public String chatTag(Integer idChat) {
+        return tag(chatTagKeys(idChat));
+    }
+
+    /**
+     * Builds the ETag of a user.
+     *
+     * @param idUser the user ID.
+     * @return the quoted, strong ETag.
+     */
+    public String userTag(Integer idUser) {
+        return tag(List.of(userKey(idUser)));
+    }
+
+    /**
+     * Builds the ETag of the participants of a chat, which also change with any of their users.
+     *
+     * @param idChat the chat ID.
+     * @return the quoted, strong ETag.
+     */
+    public String participantsTag(Integer idChat) {
+        return tag(participantsTagKeys(idChat));
+    }
+
+    /**
+     * Builds the ETag of the chats visible to a user.
+     *
+     * @param idUser the user ID.
+     * @return the quoted, strong ETag.
+     */
+    public String chatListTag(Integer idUser) {
+        return tag(chatListTagKeys(idUser));
+    }
+
+    /**
+     * Retrieves the keys of the counters making the ETag of a chat, for readers building it themselves.
+     *
+     * @param idChat the chat ID.
+     * @return the keys, in the order of {@link #tag(List, Map)}.
+     */
+    public static List<String> chatTagKeys(Integer idChat) {
+        return List.of(chatKey(idChat));
+    }
+
+    /**
+     * Retrieves the keys of the counters making the ETag of the participants of a chat.
+     *
+     * @param idChat the chat ID.
+     * @return the keys, in the order of {@link #tag(List, Map)}.
+     */
+    public static List<String> participantsTagKeys(Integer idChat) {
+        return List.of(membersKey(idChat), USERS_KEY);
+    }
+
+    /**
+     * Retrieves the keys of the counters making the ETag of the chats visible to a user.
+     *
+     * @param idUser the user ID.
+     * @return the keys, in the order of {@link #tag(List, Map)}.
+     */
+    public static List<String> chatListTagKeys(Integer idUser) {
+        return List.of(chatListKey(idUser));
+    }
+
+    /**
+     * Builds an ETag from the values of its counters, a missing counter being 0.
+     *
+     * @param keys     the keys of the counters.
+     * @param versions the values read, by key.
+     * @return the quoted, strong ETag.
+     */
+    public static String tag(List<String> keys, Map<String, Long> versions) {
+        List<String> values = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            values.add(Long.toString(versions.getOrDefault(key, 0L)));
+        }
+        return "\"" + String.join(".", values) + "\"";
+    }
+
+    /**
+     * Tells whether a chat changed recently enough for a replica not to show it yet.
+     *
+     * @param idChat the chat ID.
+     * @return true if the chat must be read on the primary.
+     */
+    public boolean chatChangedRecently(Integer idChat) {
+        return changedRecently(chatTagKeys(idChat));
+    }
+
+    /**
+     * Tells whether the participants of a chat, or any user, changed recently enough for a replica not to show it yet.
+     *
+     * @param idChat the chat ID.
+     * @return true if the participants must be read on the primary.
+     */
+    public boolean participantsChangedRecently(Integer idChat) {
+        return changedRecently(participantsTagKeys(idChat));
+    }
+
+    /**
+     * Tells whether the chats visible to a user changed recently enough for a replica not to show it yet.
+     *
+     * @param idUser the user ID.
+     * @return true if the chat list must be read on the primary.
+     */
+    public boolean chatListChangedRecently(Integer idUser) {
+        return changedRecently(chatListTagKeys(idUser));
+    }
+
+    /**
+     * Records a change of a chat: its title, description or expiration, its expiry or its deletion.
+     *
+     * @param idChat  the chat ID.
+     * @param members the owner and the guests, whose chat lists show the chat.
+     */
+    public void chatChanged(Integer idChat, Collection<Integer> members) {
+        List<String> keys = new ArrayList<>(members.size() + 2);
+        keys.add(chatKey(idChat));
+        keys.add(membersKey(idChat));
+        members.forEach(idUser -> keys.add(chatListKey(idUser)));
+        bump(keys);
+    }
+
+    /**
+     * Records users joining or leaving a chat.
+     *
+     * @param idChat  the chat ID.
+     * @param userIds the users invited or uninvited.
+     */
+    public void membersChanged(Integer idChat, Collection<Integer> userIds) {
+        List<String> keys = new ArrayList<>(userIds.size() + 1);
+        keys.add(membersKey(idChat));
+        userIds.forEach(idUser -> keys.add(chatListKey(idUser)));
+        bump(keys);
+    }
+
+    /**
+     * Records a change of a chat entity written through JPA.
+     *
+     * @param idChat the chat ID.
+     */
+    public void chatEntityChanged(Integer idChat) {
+        bump(List.of(chatKey(idChat)));
+    }
+
+    /**
+     * Records a change of a user entity written through JPA.
+     *
+     * @param idUser the user ID.
+     */
+    public void userEntityChanged(Integer idUser) {
+        bump(List.of(userKey(idUser), USERS_KEY));
+    }
+
+    /**
+     * Records a change of a user that the user lists do not show, like its login attempt counter.
+     *
+     * @param idUser the user ID.
+     */
+    public void userCounterChanged(Integer idUser) {
+        bump(List.of(userKey(idUser)));
+    }
+
+    /**
+     * Checks the {@code If-Match} precondition of an update of a chat and claims the next version.
+     * The claim is atomic in the database, so of two updates sent with the same ETag only the first one passes.
+     *
+     * @param idChat  the chat ID.
+     * @param ifMatch the {@code If-Match} header, null if absent.
+     * @throws ResponseStatusException with status 412 if the chat changed since the given ETag.
+     */
+    public void claimChat(Integer idChat, String ifMatch) {
+        claim(chatKey(idChat), ifMatch);
+    }
+
+    /**
+     * Checks the {@code If-Match} precondition of an update of a user and claims the next version.
+     *
+     * @param idUser  the user ID.
+     * @param ifMatch the {@code If-Match} header, null if absent.
+     * @throws ResponseStatusException with status 412 if the user changed since the given ETag.
+     */
+    public void claimUser(Integer idUser, String ifMatch) {
+        claim(userKey(idUser), ifMatch);
+    }
+
+    private void claim(String key, String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return;
+        }
+        for (String candidate : ifMatch.split(",")) {
+            Long version = parseVersion(candidate.trim());
+            if (version != null && claim(key, version)) {
+                return;
+            }
+        }
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "Resource modified");
+    }
+
+    /**
+     * Moves a counter on if it still has the given value.
+     */
+    private boolean claim(String key, long version) {
+        long now = System.currentTimeMillis();
+        if (version == 0) {
+            try {
+                // Nothing was recorded yet: the first claim creates the counter
+                return Boolean.TRUE.equals(ownTransaction.execute(status -> jdbcTemplate.update(CLAIM_FIRST_SQL, key, now) == 1));
+            } catch (DuplicateKeyException e) {
+                // Created in the meantime, and a counter starts at 1
+                return false;
+            }
+        }
+        return Boolean.TRUE.equals(ownTransaction.execute(status -> jdbcTemplate.update(CLAIM_SQL, now, key, version) == 1));
+    }
+
+    /**
+     * Reads the version of a single counter tag, null if the tag was not built from a single counter.
+     */
+    private static Long parseVersion(String etag) {
+        if (etag.length() < 2 || !etag.startsWith("\"") || !etag.endsWith("\"")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(etag.substring(1, etag.length() - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void bump(List<String> keys) {
+        long now = System.currentTimeMillis();
+        // Always in the same order, so two bumps of the same counters never wait on each other's rows
+        List<String> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        ownTransaction.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(BUMP_SQL, sorted.stream().map(key -> new Object[]{key, now, now}).toList()));
+    }
+
+    private String tag(List<String> keys) {
+        Map<String, Long> versions = new HashMap<>();
+        ReadWriteRoutingDataSource.readOnPrimary(() -> jdbcTemplate.query(String.format(VERSIONS_SQL, placeholders(keys.size())),
+                (rs, rowNum) -> versions.put(rs.getString(1), rs.getLong(2)), keys.toArray()));
+        return tag(keys, versions);
+    }
+
+    private boolean changedRecently(List<String> keys) {
+        Long at = ReadWriteRoutingDataSource.readOnPrimary(() -> jdbcTemplate.queryForObject(
+                String.format(CHANGED_AT_SQL, placeholders(keys.size())), Long.class, keys.toArray()));
+        return at != null && System.currentTimeMillis() - at < primaryReadMillis;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    private static String chatKey(Integer idChat) {
+        return "chat:" + idChat;
+    }
+
+    private static String userKey(Integer idUser) {
+        return "user:" + idUser;
+    }
+
+    private static String membersKey(Integer idChat) {
+        return "members:" + idChat;
+    }
+
+    private static String chatListKey(Integer idUser) {
+        return "chats:" + idUser;
+    }
+}
@@ -0,0 +1,344 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.dto.MessageDto;
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.entity.Message;
+import fr.utc.sr03.ChatSR03Admin.repository.ChatRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Message store appending the messages of every chat to a local, segmented, memory-mapped log.
+ * <p>
+ * Each record gets an ID from a single increasing counter, so IDs follow the order of the log.
+ * A sparse index keeps the position of one record out of {@code indexInterval} for each chat: a read
+ * jumps to the closest indexed record and scans forward through the mapped segments, decoding only the
+ * bodies of the records of the requested chat. The index also keeps the ID of the last record of the chat,
+ * where every scan stops: the newest page of a quiet chat does not walk the records the other chats
+ * appended after it.
+ * <p>
+ * Retention follows {@link Chat#getDateExpiration()}: a closed segment whose chats have all expired or
+ * been deleted is deleted whole.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.store.type", havingValue = "segment-log")
+public class SegmentLogMessageStore implements MessageStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentLogMessageStore.class);
+
+    /**
+     * Position of an indexed record.
+     */
+    private record IndexEntry(LogSegment segment, int position) {
+    }
+
+    /**
+     * Sparse index of the records of one chat.
+     */
+    private static final class ChatIndex {
+        private final ConcurrentSkipListMap<Long, IndexEntry> entries = new ConcurrentSkipListMap<>();
+        private long count;
+        private volatile long lastId;
+        private volatile long lastSequence;
+    }
+
+    private final ChatRepository chatRepository;
+    private final Path directory;
+    private final int segmentBytes;
+    private final int indexInterval;
+
+    private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Integer, ChatIndex> indexes = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private long nextId = 1;
+
+    public SegmentLogMessageStore(ChatRepository chatRepository,
+                                  @Value("${chat.store.segmentLog.directory:data/messages}") String directory,
+                                  @Value("${chat.store.segmentLog.segmentBytes:67108864}") int segmentBytes,
+                                  @Value("${chat.store.segmentLog.indexInterval:64}") int indexInterval) {
+        this.chatRepository = chatRepository;
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * Opens the existing segments, rebuilds the sparse indexes and creates the active segment.
+     *
+     * @throws IOException if the log directory cannot be read.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+        for (Path file : files) {
+            List<long[]> recovered = new ArrayList<>();
+            LogSegment segment = LogSegment.open(file, (position, id, chatId, senderId, sequence, sentAt, body) -> {
+                recovered.add(new long[]{id, chatId, position, sequence});
+                return true;
+            });
+            for (long[] record : recovered) {
+                index((int) record[1], record[0], segment, (int) record[2], record[3]);
+            }
+            if (!segment.isEmpty()) {
+                nextId = segment.getLastId() + 1;
+            }
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(LogSegment.create(directory, nextId, segmentBytes));
+        }
+        LOGGER.info("Journal des messages ouvert : {} segments, prochain id {}", segments.size(), nextId);
+    }
+
+    @Override
+    public boolean append(Message message) {
+        if (message.getBody() == null || message.getBody().isEmpty()) {
+            LOGGER.error("Message du chat [{}] sans corps, non journalisé", message.getChatId());
+            return false;
+        }
+        byte[] body = message.getBody().getBytes(StandardCharsets.UTF_8);
+        if (LogSegment.HEADER_BYTES + body.length + 4 > segmentBytes) {
+            LOGGER.error("Message du chat [{}] trop long pour le journal ({} octets)", message.getChatId(), body.length);
+            return false;
+        }
+        writeLock.lock();
+        try {
+            long id = nextId;
+            LogSegment active = segments.get(segments.size() - 1);
+            int position = active.append(id, message.getChatId(), message.getSenderId(), message.getSequence(), message.getSentAt().getTime(), body);
+            if (position < 0) {
+                active.force();
+                active = LogSegment.create(directory, id, segmentBytes);
+                segments.add(active);
+                position = active.append(id, message.getChatId(), message.getSenderId(), message.getSequence(), message.getSentAt().getTime(), body);
+            }
+            index(message.getChatId(), id, active, position, message.getSequence());
+            message.setIdMessage(id);
+            nextId = id + 1;
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Impossible de créer un segment du journal : {}", e.getMessage());
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<MessageDto> findLatest(Integer chatId, int limit) {
+        return findBefore(chatId, Long.MAX_VALUE, limit);
+    }
+
+    @Override
+    public List<MessageDto> findBefore(Integer chatId, long before, int limit) {
+        ChatIndex index = indexes.get(chatId);
+        if (index == null || limit <= 0) {
+            return List.of();
+        }
+        // Nothing of the chat lies beyond its last record
+        long end = Math.min(before, index.lastId + 1);
+        // Each index entry is followed by indexInterval records of the chat: step back far enough to cover the page
+        Map.Entry<Long, IndexEntry> start = index.entries.lowerEntry(end);
+        for (int covered = 0; start != null && covered < limit; covered += indexInterval) {
+            Map.Entry<Long, IndexEntry> lower = index.entries.lowerEntry(start.getKey());
+            if (lower == null) {
+                break;
+            }
+            start = lower;
+        }
+        if (start == null) {
+            return List.of();
+        }
+        Deque<MessageDto> page = new ArrayDeque<>(limit + 1);
+        scan(start.getValue(), (position, id, recordChatId, senderId, sequence, sentAt, body) -> {
+            if (id >= end) {
+                return false;
+            }
+            if (recordChatId == chatId) {
+                page.addLast(toDto(id, senderId, sequence, sentAt, body));
+                if (page.size() > limit) {
+                    page.pollFirst();
+                }
+            }
+            return id + 1 < end;
+        });
+        List<MessageDto> result = new ArrayList<>(page);
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public List<MessageDto> findAfter(Integer chatId, long after, int limit) {
+        ChatIndex index = indexes.get(chatId);
+        long last = index == null ? 0 : index.lastId;
+        if (index == null || limit <= 0 || after >= last) {
+            return List.of();
+        }
+        Map.Entry<Long, IndexEntry> start = index.entries.floorEntry(after);
+        if (start == null) {
+            start = index.entries.firstEntry();
+            if (start == null) {
+                return List.of();
+            }
+        }
+        List<MessageDto> page = new ArrayList<>(limit);
+        scan(start.getValue(), (position, id, recordChatId, senderId, sequence, sentAt, body) -> {
+            if (id > last) {
+                return false;
+            }
+            if (recordChatId == chatId && id > after) {
+                page.add(toDto(id, senderId, sequence, sentAt, body));
+            }
+            return page.size() < limit && id < last;
+        });
+        return page;
+    }
+
+    @Override
+    public long findLastSequence(Integer chatId) {
+        ChatIndex index = indexes.get(chatId);
+        return index == null ? 0 : index.lastSequence;
+    }
+
+    /**
+     * The records of expired chats are reclaimed by {@link #deleteExpiredSegments()}, a segment at a time.
+     */
+    @Override
+    public int deleteChats(Collection<Integer> chatIds) {
+        return 0;
+    }
+
+    /**
+     * Writes the pages of the active segment to the disk.
+     */
+    @Scheduled(fixedDelayString = "${chat.store.segmentLog.forceIntervalMillis:1000}")
+    public void force() {
+        segments.get(segments.size() - 1).force();
+    }
+
+    /**
+     * Deletes the closed segments whose chats have all expired or been deleted.
+     */
+    @Scheduled(fixedDelayString = "${chat.store.segmentLog.retentionCheckMillis:3600000}")
+    public void deleteExpiredSegments() {
+        Date now = new Date();
+        for (LogSegment segment : segments) {
+            if (segment == segments.get(segments.size() - 1)) {
+                continue;
+            }
+            Set<Integer> chatIds = new HashSet<>(segment.getChatIds());
+            boolean alive = false;
+            for (Chat chat : chatRepository.findAllById(chatIds)) {
+                if (chat.getDateExpiration() == null || chat.getDateExpiration().after(now)) {
+                    alive = true;
+                    break;
+                }
+            }
+            if (!alive) {
+                deleteSegment(segment, chatIds);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending pages and closes the segments.
+     */
+    @PreDestroy
+    public void close() {
+        writeLock.lock();
+        try {
+            for (LogSegment segment : segments) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Erreur lors de la fermeture du journal des messages : {}", e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Records the position of a record in the sparse index of its chat, and the record as the last one of the chat.
+     * The first record of a chat is always indexed. Called under the write lock or during the opening.
+     */
+    private void index(int chatId, long id, LogSegment segment, int position, long sequence) {
+        ChatIndex index = indexes.computeIfAbsent(chatId, k -> new ChatIndex());
+        index.lastId = id;
+        index.lastSequence = Math.max(index.lastSequence, sequence);
+        if (index.count % indexInterval == 0) {
+            index.entries.put(id, new IndexEntry(segment, position));
+        }
+        index.count++;
+    }
+
+    /**
+     * Scans the log from an indexed record, moving on to the following segments.
+     */
+    private void scan(IndexEntry start, LogSegment.RecordVisitor visitor) {
+        List<LogSegment> snapshot = List.copyOf(segments);
+        int first = snapshot.indexOf(start.segment());
+        int position = start.position();
+        if (first < 0) {
+            // The segment was deleted by the retention in the meantime
+            first = 0;
+            position = 0;
+        }
+        for (int i = first; i < snapshot.size(); i++) {
+            if (!snapshot.get(i).scan(i == first ? position : 0, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a segment from the log and drops the index entries pointing to it.
+     */
+    private void deleteSegment(LogSegment segment, Set<Integer> chatIds) {
+        writeLock.lock();
+        try {
+            segments.remove(segment);
+            for (Integer chatId : chatIds) {
+                ChatIndex index = indexes.get(chatId);
+                if (index != null) {
+                    index.entries.values().removeIf(entry -> entry.segment() == segment);
+                    if (index.entries.isEmpty()) {
+                        indexes.remove(chatId);
+                    }
+                }
+            }
+            segment.delete();
+            LOGGER.info("Segment [{}] supprimé, chats expirés : {}", segment.getBaseId(), chatIds);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static MessageDto toDto(long id, int senderId, long sequence, long sentAt, ByteBuffer body) {
+        return new MessageDto(id, senderId, sequence, new Date(sentAt), body == null ? null : StandardCharsets.UTF_8.decode(body).toString());
+    }
+}
@@ -0,0 +1,462 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.dto.ParticipantDto;
+import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory substring search over the first name, last name and email of the users.
+ * <p>
+ * Each field is cut into lower-case trigrams, and each trigram points to the users whose fields contain
+ * it. A query of three characters or more intersects the posting sets of its trigrams, starting from the
+ * smallest, then checks the remaining candidates against the full query. Shorter queries scan the users.
+ * The users are also kept sorted by last name, in one set per activation status, with a counter per
+ * status, so pages come out in order with their total, without {@code LIKE '%x%'} scans nor {@code COUNT}
+ * queries. A page can start after the last user of the previous one, given by a cursor carrying its position:
+ * without query, reading a page then costs the same whatever its depth. Pages by offset walk the users before
+ * them, so their depth is bounded by {@code chat.userSearch.maxOffset}.
+ * <p>
+ * The index is built at startup, kept up to date by {@link UserSearchIndexListener} when users are
+ * created, updated or deleted, and rebuilt every {@code chat.userSearch.rebuildMillis} to catch the
+ * changes made outside the application. The changes received while a rebuild reads the users are
+ * recorded and applied again to the new structures once they are swapped in, so none is lost.
+ */
+@Component
+public class UserSearchIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserSearchIndex.class);
+
+    private static final int GRAM = 3;
+
+    private static final Comparator<Entry> BY_LAST_NAME = Comparator
+            .comparing((Entry e) -> e.sortKey)
+            .thenComparingInt(e -> e.idUser);
+
+    /**
+     * Page of search results.
+     *
+     * @param ids        the IDs of the users of the page, in order.
+     * @param total      the number of users matching the search.
+     * @param hasNext    true if more users match after the page.
+     * @param nextCursor the cursor of the next page, for {@link #searchAfter}; null on the last page.
+     */
+    public record SearchResult(List<Integer> ids, int total, boolean hasNext, String nextCursor) {
+    }
+
+    /**
+     * Indexed fields of a user.
+     */
+    private static final class Entry {
+        private final int idUser;
+        private final String firstName;
+        private final String lastName;
+        private final String email;
+        private final boolean activated;
+        private final String sortKey;
+
+        private Entry(int idUser, String firstName, String lastName, String email, boolean activated) {
+            this.idUser = idUser;
+            this.firstName = normalize(firstName);
+            this.lastName = normalize(lastName);
+            this.email = normalize(email);
+            this.activated = activated;
+            this.sortKey = this.lastName;
+        }
+
+        private boolean matches(String query) {
+            return firstName.contains(query) || lastName.contains(query) || email.contains(query);
+        }
+
+        private Set<String> grams() {
+            Set<String> grams = new HashSet<>();
+            addGrams(grams, firstName);
+            addGrams(grams, lastName);
+            addGrams(grams, email);
+            return grams;
+        }
+    }
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    /** Deepest offset of a page without cursor, the users before it being walked one by one. */
+    private final int maxOffset;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Serializes the rebuilds; not a monitor, which would pin a virtual thread for the whole read. */
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private Map<Integer, Entry> entries = new HashMap<>();
+    private Map<String, Set<Integer>> postings = new HashMap<>();
+    private NavigableSet<Entry> byLastName = new TreeSet<>(BY_LAST_NAME);
+    private NavigableSet<Entry> activatedByLastName = new TreeSet<>(BY_LAST_NAME);
+    private NavigableSet<Entry> deactivatedByLastName = new TreeSet<>(BY_LAST_NAME);
+    /** Changes received during the current rebuild, by user ID, null for a removal; null when not rebuilding. */
+    private Map<Integer, Entry> changedDuringRebuild;
+
+    public UserSearchIndex(UserRepository userRepository,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${chat.userSearch.maxOffset:1000}") int maxOffset) {
+        this.userRepository = userRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.maxOffset = maxOffset;
+    }
+
+    /**
+     * Builds the index from the users in the database.
+     */
+    @PostConstruct
+    @Scheduled(initialDelayString = "${chat.userSearch.rebuildMillis:3600000}", fixedDelayString = "${chat.userSearch.rebuildMillis:3600000}")
+    public void rebuild() {
+        rebuildLock.lock();
+        try {
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = new LinkedHashMap<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                swap(read());
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    changedDuringRebuild = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * New structures of the index, built by a rebuild.
+     */
+    private record Snapshot(Map<Integer, Entry> entries, Map<String, Set<Integer>> postings, NavigableSet<Entry> byLastName,
+                            NavigableSet<Entry> activated, NavigableSet<Entry> deactivated) {
+    }
+
+    /**
+     * Reads the users from the database into new structures, without holding the lock.
+     */
+    private Snapshot read() {
+        Map<Integer, Entry> newEntries = new HashMap<>();
+        Map<String, Set<Integer>> newPostings = new HashMap<>();
+        NavigableSet<Entry> newByLastName = new TreeSet<>(BY_LAST_NAME);
+        NavigableSet<Entry> newActivated = new TreeSet<>(BY_LAST_NAME);
+        NavigableSet<Entry> newDeactivated = new TreeSet<>(BY_LAST_NAME);
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<ParticipantDto> users = userRepository.streamAll()) {
+                users.forEach(u -> {
+                    Entry entry = new Entry(u.idUser(), u.firstName(), u.lastName(), u.email(), u.activated());
+                    newEntries.put(entry.idUser, entry);
+                    newByLastName.add(entry);
+                    (entry.activated ? newActivated : newDeactivated).add(entry);
+                    for (String gram : entry.grams()) {
+                        newPostings.computeIfAbsent(gram, k -> new HashSet<>()).add(entry.idUser);
+                    }
+                });
+            }
+        });
+        return new Snapshot(newEntries, newPostings, newByLastName, newActivated, newDeactivated);
+    }
+
+    /**
+     * Swaps the new structures in and applies again the changes received since the rebuild started.
+     */
+    private void swap(Snapshot snapshot) {
+        int replayed;
+        lock.writeLock().lock();
+        try {
+            entries = snapshot.entries();
+            postings = snapshot.postings();
+            byLastName = snapshot.byLastName();
+            activatedByLastName = snapshot.activated();
+            deactivatedByLastName = snapshot.deactivated();
+            replayed = changedDuringRebuild.size();
+            changedDuringRebuild.forEach((idUser, entry) -> {
+                removeEntry(idUser);
+                if (entry != null) {
+                    addEntry(entry);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LOGGER.info("Index de recherche des utilisateurs construit : {} utilisateurs, {} trigrammes, {} changements rejoués",
+                snapshot.entries().size(), snapshot.postings().size(), replayed);
+    }
+
+    /**
+     * Adds or replaces a user in the index.
+     *
+     * @param idUser    the user ID.
+     * @param firstName the first name.
+     * @param lastName  the last name.
+     * @param email     the email address.
+     * @param activated true if the account is activated.
+     */
+    public void put(int idUser, String firstName, String lastName, String email, boolean activated) {
+        Entry entry = new Entry(idUser, firstName, lastName, email, activated);
+        lock.writeLock().lock();
+        try {
+            removeEntry(idUser);
+            addEntry(entry);
+            record(idUser, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a user from the index.
+     *
+     * @param idUser the user ID.
+     */
+    public void remove(int idUser) {
+        lock.writeLock().lock();
+        try {
+            removeEntry(idUser);
+            record(idUser, null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves the deepest offset accepted by {@link #search(String, Boolean, boolean, int, int)}.
+     *
+     * @return the value of {@code chat.userSearch.maxOffset}.
+     */
+    public int getMaxOffset() {
+        return maxOffset;
+    }
+
+    /**
+     * Searches the users whose first name, last name or email contains a query, sorted by last name.
+     * The users before the page are walked one by one, so the offset is bounded by {@code chat.userSearch.maxOffset}.
+     *
+     * @param query     the text to search, case-insensitive, null or blank for every user.
+     * @param activated the activation status of the users, null for both.
+     * @param ascending true to sort by ascending last name.
+     * @param offset    the index of the first result of the page.
+     * @param limit     the maximum number of results of the page.
+     * @return the IDs of the page and the total number of matches.
+     * @throws IllegalArgumentException if the offset is above {@code chat.userSearch.maxOffset}.
+     */
+    public SearchResult search(String query, Boolean activated, boolean ascending, int offset, int limit) {
+        if (offset > maxOffset) {
+            throw new IllegalArgumentException("Offset " + offset + " above " + maxOffset + ", follow the next page cursor instead");
+        }
+        return search(query, activated, ascending, null, offset, limit);
+    }
+
+    /**
+     * Searches the users following the last user of the previous page, sorted by last name.
+     * The users are not skipped one by one: the page starts at the position of the cursor, which carries the
+     * sort key of that user, so the page follows on even if the user has been deleted or renamed since.
+     *
+     * @param query     the text to search, case-insensitive, null or blank for every user.
+     * @param activated the activation status of the users, null for both.
+     * @param ascending true to sort by ascending last name.
+     * @param cursor    the {@link SearchResult#nextCursor()} of the previous page.
+     * @param limit     the maximum number of results of the page.
+     * @return the IDs of the page and the total number of matches.
+     * @throws IllegalArgumentException if the cursor is not one returned by the index.
+     */
+    public SearchResult searchAfter(String query, Boolean activated, boolean ascending, String cursor, int limit) {
+        return search(query, activated, ascending, decodeCursor(cursor), 0, limit);
+    }
+
+    private SearchResult search(String query, Boolean activated, boolean ascending, Entry after, int offset, int limit) {
+        String q = query == null ? "" : normalize(query.trim());
+        lock.readLock().lock();
+        try {
+            if (q.isEmpty()) {
+                // The total is the size of the set, so only the page itself is read
+                NavigableSet<Entry> sorted = activated == null ? byLastName : sortedSet(activated);
+                int total = sorted.size();
+                if (!ascending) {
+                    sorted = sorted.descendingSet();
+                }
+                if (after != null) {
+                    // Seeks to the first user after the cursor, present in the set or not
+                    sorted = sorted.tailSet(after, false);
+                }
+                List<Entry> page = new ArrayList<>(Math.max(0, Math.min(limit, total)));
+                Iterator<Entry> it = sorted.iterator();
+                for (int skipped = 0; skipped < offset && it.hasNext(); skipped++) {
+                    it.next();
+                }
+                while (page.size() < limit && it.hasNext()) {
+                    page.add(it.next());
+                }
+                return result(page, total, it.hasNext());
+            }
+            if (q.length() < GRAM) {
+                // Too short for the trigrams: walk the sorted users, counting every match
+                NavigableSet<Entry> sorted = activated == null ? byLastName : sortedSet(activated);
+                Comparator<Entry> order = ascending ? BY_LAST_NAME : BY_LAST_NAME.reversed();
+                List<Entry> page = new ArrayList<>(Math.max(0, limit));
+                int skipped = 0;
+                int total = 0;
+                boolean hasNext = false;
+                for (Entry entry : ascending ? sorted : sorted.descendingSet()) {
+                    if (!entry.matches(q)) {
+                        continue;
+                    }
+                    total++;
+                    if (after != null && order.compare(entry, after) <= 0) {
+                        continue;
+                    }
+                    if (skipped < offset) {
+                        skipped++;
+                    } else if (page.size() < limit) {
+                        page.add(entry);
+                    } else {
+                        hasNext = true;
+                    }
+                }
+                return result(page, total, hasNext);
+            }
+            List<Entry> matches = new ArrayList<>();
+            for (Integer idUser : candidates(q)) {
+                Entry entry = entries.get(idUser);
+                if (entry != null && (activated == null || entry.activated == activated) && entry.matches(q)) {
+                    matches.add(entry);
+                }
+            }
+            Comparator<Entry> order = ascending ? BY_LAST_NAME : BY_LAST_NAME.reversed();
+            matches.sort(order);
+            int start = offset;
+            if (after != null) {
+                int position = Collections.binarySearch(matches, after, order);
+                start = position >= 0 ? position + 1 : -position - 1;
+            }
+            List<Entry> page = matches.subList(Math.min(start, matches.size()), Math.min(start + Math.max(0, limit), matches.size()));
+            return result(page, matches.size(), start + page.size() < matches.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Intersects the posting sets of the trigrams of a query, from the smallest one.
+     */
+    private Set<Integer> candidates(String query) {
+        Set<String> grams = new HashSet<>();
+        addGrams(grams, query);
+        List<Set<Integer>> sets = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            Set<Integer> posting = postings.get(gram);
+            if (posting == null) {
+                return Set.of();
+            }
+            sets.add(posting);
+        }
+        sets.sort(Comparator.comparingInt(Set::size));
+        Set<Integer> result = new HashSet<>(sets.get(0));
+        for (int i = 1; i < sets.size() && !result.isEmpty(); i++) {
+            result.retainAll(sets.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Adds a user to the structures, called under the write lock.
+     */
+    private void addEntry(Entry entry) {
+        entries.put(entry.idUser, entry);
+        byLastName.add(entry);
+        sortedSet(entry.activated).add(entry);
+        for (String gram : entry.grams()) {
+            postings.computeIfAbsent(gram, k -> new HashSet<>()).add(entry.idUser);
+        }
+    }
+
+    /**
+     * Records a change received during a rebuild, called under the write lock.
+     */
+    private void record(int idUser, Entry entry) {
+        if (changedDuringRebuild != null) {
+            changedDuringRebuild.remove(idUser);
+            changedDuringRebuild.put(idUser, entry);
+        }
+    }
+
+    /**
+     * Removes a user from the structures, called under the write lock.
+     */
+    private void removeEntry(int idUser) {
+        Entry previous = entries.remove(idUser);
+        if (previous == null) {
+            return;
+        }
+        byLastName.remove(previous);
+        sortedSet(previous.activated).remove(previous);
+        for (String gram : previous.grams()) {
+            Set<Integer> posting = postings.get(gram);
+            if (posting != null) {
+                posting.remove(idUser);
+                if (posting.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+    }
+
+    private NavigableSet<Entry> sortedSet(boolean activated) {
+        return activated ? activatedByLastName : deactivatedByLastName;
+    }
+
+    private static void addGrams(Set<String> grams, String value) {
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM));
+        }
+    }
+
+    private static SearchResult result(List<Entry> page, int total, boolean hasNext) {
+        List<Integer> ids = new ArrayList<>(page.size());
+        for (Entry entry : page) {
+            ids.add(entry.idUser);
+        }
+        String nextCursor = hasNext && !page.isEmpty() ? encodeCursor(page.get(page.size() - 1)) : null;
+        return new SearchResult(ids, total, hasNext, nextCursor);
+    }
+
+    /**
+     * Encodes the position of a user in the sort order: its ID and its sort key, URL-safe.
+     */
+    private static String encodeCursor(Entry entry) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((entry.idUser + ":" + entry.sortKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor into an entry that only carries a position, to seek the sorted users with.
+     */
+    private static Entry decodeCursor(String cursor) {
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = decoded.indexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return new Entry(Integer.parseInt(decoded.substring(0, separator)), null, decoded.substring(separator + 1), null, false);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,40 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.entity.User;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+
+/**
+ * JPA entity listener keeping the {@link UserSearchIndex} up to date.
+ * <p>
+ * Hibernate creates it through Spring, the index is looked up lazily to avoid a cycle with the
+ * entity manager factory. Changes are applied once the transaction commits, so a rolled back update
+ * does not reach the index.
+ */
+public class UserSearchIndexListener {
+
+    private final ObjectProvider<UserSearchIndex> userSearchIndex;
+
+    public UserSearchIndexListener(ObjectProvider<UserSearchIndex> userSearchIndex) {
+        this.userSearchIndex = userSearchIndex;
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void onSave(User user) {
+        int idUser = user.getIdUser();
+        String firstName = user.getFirstName();
+        String lastName = user.getLastName();
+        String email = user.getEmail();
+        boolean activated = user.isActivated();
+        AfterCommit.run(() -> userSearchIndex.getObject().put(idUser, firstName, lastName, email, activated));
+    }
+
+    @PostRemove
+    public void onRemove(User user) {
+        int idUser = user.getIdUser();
+        AfterCommit.run(() -> userSearchIndex.getObject().remove(idUser));
+    }
+}
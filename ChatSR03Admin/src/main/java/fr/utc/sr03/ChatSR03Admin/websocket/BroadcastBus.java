@@ -0,0 +1,50 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import java.util.function.Consumer;
+
+/**
+ * Publish/subscribe channel between the WebSocket nodes of the application.
+ * <p>
+ * A node subscribes to a chat while it has local sessions in it, and only receives the envelopes
+ * of the chats it is subscribed to. Envelopes published by a node are delivered to the other
+ * subscribed nodes, never back to the publisher, in the order they were published by that node.
+ * The implementation is chosen with the {@code chat.bus.type} property: {@code in-jvm} (default)
+ * or {@code file}.
+ */
+public interface BroadcastBus {
+
+    /**
+     * Retrieves the ID of this node, used as origin of its envelopes.
+     *
+     * @return the node ID, unique for each start of the application.
+     */
+    String getNodeId();
+
+    /**
+     * Registers the consumer of the envelopes published by the other nodes.
+     *
+     * @param listener the consumer of the envelopes.
+     */
+    void setListener(Consumer<ChatEnvelope> listener);
+
+    /**
+     * Starts receiving the envelopes of a chat.
+     *
+     * @param chatId the chat ID.
+     */
+    void subscribe(Integer chatId);
+
+    /**
+     * Stops receiving the envelopes of a chat.
+     *
+     * @param chatId the chat ID.
+     */
+    void unsubscribe(Integer chatId);
+
+    /**
+     * Publishes an envelope to the other nodes subscribed to its chat.
+     *
+     * @param envelope the envelope to publish.
+     */
+    void publish(ChatEnvelope envelope);
+}
@@ -0,0 +1,72 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+/**
+ * Immutable envelope of a frame broadcast in a chat.
+ */
+public final class ChatEnvelope {
+
+    private final EnvelopeType type;
+    private final Integer chatId;
+    private final Integer senderId;
+    private final long sequence;
+    private final long chatSequence;
+    private final long timestamp;
+    private final String body;
+    private final String origin;
+
+    /**
+     * Creates an envelope.
+     *
+     * @param type      the type of the frame.
+     * @param chatId    the chat ID.
+     * @param senderId  the ID of the user who sent the frame.
+     * @param sequence  the sequence number assigned by the server.
+     * @param chatSequence the number of the message in its chat, assigned once by the node that received it
+     *                  from its sender, 0 if the envelope is not a chat message.
+     * @param timestamp the time the server received the frame, in epoch milliseconds.
+     * @param body      the text of the frame, may be null.
+     * @param origin    the ID of the node that created the envelope, sequences are only comparable within a node.
+     */
+    public ChatEnvelope(EnvelopeType type, Integer chatId, Integer senderId, long sequence, long chatSequence, long timestamp, String body, String origin) {
+        this.type = type;
+        this.chatId = chatId;
+        this.senderId = senderId;
+        this.sequence = sequence;
+        this.chatSequence = chatSequence;
+        this.timestamp = timestamp;
+        this.body = body;
+        this.origin = origin;
+    }
+
+    public EnvelopeType getType() {
+        return type;
+    }
+
+    public Integer getChatId() {
+        return chatId;
+    }
+
+    public Integer getSenderId() {
+        return senderId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getChatSequence() {
+        return chatSequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+}
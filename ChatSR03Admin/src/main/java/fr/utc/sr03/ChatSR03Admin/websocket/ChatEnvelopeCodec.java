@@ -0,0 +1,248 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+
+/**
+ * Streaming JSON codec for the chat WebSocket frames.
+ * <p>
+ * Frames are read and written with the Jackson streaming API, without building a tree or
+ * binding to objects, so a broadcast frame is encoded once and shared by every recipient.
+ */
+public final class ChatEnvelopeCodec {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ChatEnvelopeCodec() {
+    }
+
+    /**
+     * Frame sent by a client, as read by {@link #parseClientFrame(String)}.
+     *
+     * @param type the type requested by the client, null for a plain chat message.
+     * @param body the text of the message.
+     */
+    public record ClientFrame(String type, String body) {
+    }
+
+    /**
+     * Parses a frame received from a client.
+     * <p>
+     * A JSON object is read for its {@code type} and {@code body} (or {@code message}) fields, any other
+     * field is ignored since the sender and the chat come from the WebSocket path. Any other text is
+     * taken as the body of a plain chat message.
+     *
+     * @param raw the raw text received.
+     * @return the parsed frame.
+     */
+    public static ClientFrame parseClientFrame(String raw) {
+        String trimmed = raw.trim();
+        if (!trimmed.startsWith("{")) {
+            return new ClientFrame(null, raw);
+        }
+        String type = null;
+        String body = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(trimmed)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                } else if ("type".equals(field)) {
+                    type = parser.getValueAsString();
+                } else if ("body".equals(field) || ("message".equals(field) && body == null)) {
+                    body = parser.getValueAsString();
+                }
+            }
+        } catch (IOException e) {
+            return new ClientFrame(null, raw);
+        }
+        return new ClientFrame(type, body);
+    }
+
+    /**
+     * Encodes an envelope into the frame sent to the clients and to the other nodes.
+     * A chat message carries its sequence number in the chat, which the client sends back as
+     * {@code lastSeq} when it reconnects, and which the other nodes keep as is.
+     *
+     * @param envelope the envelope to encode.
+     * @return the JSON frame.
+     */
+    public static String encode(ChatEnvelope envelope) {
+        StringWriter writer = new StringWriter(112 + (envelope.getBody() == null ? 0 : envelope.getBody().length()));
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", envelope.getType().getWireName());
+            generator.writeNumberField("chatId", envelope.getChatId());
+            generator.writeNumberField("senderId", envelope.getSenderId());
+            generator.writeNumberField("sequence", envelope.getSequence());
+            if (envelope.getChatSequence() > 0) {
+                generator.writeNumberField("chatSequence", envelope.getChatSequence());
+            }
+            generator.writeNumberField("timestamp", envelope.getTimestamp());
+            if (envelope.getBody() != null) {
+                generator.writeStringField("body", envelope.getBody());
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Decodes a frame produced by {@link #encode(ChatEnvelope)}.
+     *
+     * @param frame  the JSON frame.
+     * @param origin the node that produced the frame.
+     * @return the envelope, or null if the frame is not a valid envelope.
+     */
+    public static ChatEnvelope decode(String frame, String origin) {
+        EnvelopeType type = null;
+        Integer chatId = null;
+        Integer senderId = null;
+        long sequence = 0;
+        long chatSequence = 0;
+        long timestamp = 0;
+        String body = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(frame)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "type" -> type = EnvelopeType.fromWireName(parser.getValueAsString());
+                    case "chatId" -> chatId = parser.getIntValue();
+                    case "senderId" -> senderId = parser.getIntValue();
+                    case "sequence" -> sequence = parser.getLongValue();
+                    case "chatSequence" -> chatSequence = parser.getLongValue();
+                    case "timestamp" -> timestamp = parser.getLongValue();
+                    case "body" -> body = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (type == null || chatId == null || senderId == null) {
+            return null;
+        }
+        return new ChatEnvelope(type, chatId, senderId, sequence, chatSequence, timestamp, body, origin);
+    }
+
+    /**
+     * Encodes the full list of the users connected to a chat, as of a presence version.
+     *
+     * @param chatId         the chat ID.
+     * @param version        the presence version.
+     * @param connectedUsers the IDs of the connected users.
+     * @return the JSON frame.
+     */
+    public static String encodePresenceSnapshot(Integer chatId, long version, Collection<Integer> connectedUsers) {
+        StringWriter writer = new StringWriter(64 + connectedUsers.size() * 6);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "userStatusUpdate");
+            generator.writeNumberField("chatId", chatId);
+            generator.writeNumberField("version", version);
+            writeIds(generator, "connectedUsers", connectedUsers);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Encodes the users who joined and left a chat between two presence versions.
+     *
+     * @param chatId  the chat ID.
+     * @param version the new presence version, the previous one being {@code version - 1}.
+     * @param joined  the IDs of the users who joined.
+     * @param left    the IDs of the users who left.
+     * @return the JSON frame.
+     */
+    public static String encodePresenceDelta(Integer chatId, long version, Collection<Integer> joined, Collection<Integer> left) {
+        StringWriter writer = new StringWriter(80 + (joined.size() + left.size()) * 6);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "presenceDelta");
+            generator.writeNumberField("chatId", chatId);
+            generator.writeNumberField("version", version);
+            writeIds(generator, "joined", joined);
+            writeIds(generator, "left", left);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Encodes the answer to a resume request that cannot be served from the replay buffer.
+     * The client must reload the history of the chat through the REST API.
+     *
+     * @param chatId          the chat ID.
+     * @param requested       the last sequence number seen by the client.
+     * @param oldestAvailable the oldest sequence number still in the replay buffer.
+     * @param lastSequence    the last sequence number of the chat.
+     * @return the JSON frame.
+     */
+    public static String encodeResumeGap(Integer chatId, long requested, long oldestAvailable, long lastSequence) {
+        StringWriter writer = new StringWriter(128);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "resumeGap");
+            generator.writeNumberField("chatId", chatId);
+            generator.writeNumberField("requested", requested);
+            generator.writeNumberField("oldestAvailable", oldestAvailable);
+            generator.writeNumberField("lastSequence", lastSequence);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Encodes the answer to a message that was neither delivered nor stored, because it is empty, too long, or
+     * the message store refused it. The client may send it again.
+     *
+     * @param chatId the chat ID.
+     * @param body   the body of the refused message, may be null.
+     * @return the JSON frame.
+     */
+    public static String encodeMessageRejected(Integer chatId, String body) {
+        StringWriter writer = new StringWriter(64 + (body == null ? 0 : body.length()));
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "messageRejected");
+            generator.writeNumberField("chatId", chatId);
+            if (body != null) {
+                generator.writeStringField("body", body);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private static void writeIds(JsonGenerator generator, String field, Collection<Integer> ids) throws IOException {
+        generator.writeArrayFieldStart(field);
+        for (Integer id : ids) {
+            generator.writeNumber(id);
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,155 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import jakarta.websocket.Session;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent registry of the WebSocket sessions opened in each chat.
+ * <p>
+ * Rooms are created and removed with {@link ConcurrentHashMap#compute} so that a join can never
+ * add a session to a room that a concurrent leave is removing. Only the map bin of the chat is
+ * locked during these updates, so joins and leaves in different chats do not block each other.
+ * The session sets are concurrent, so broadcasts iterate them without locking and without
+ * {@link java.util.ConcurrentModificationException}.
+ * <p>
+ * The {@link RoomListener} is not called inside these updates, since it may block, for example to
+ * subscribe to the broadcast bus. Once an update has returned, the state of the room is compared,
+ * under a lock striped by chat, with the last state announced to the listener, and the difference is
+ * announced.
+ */
+public class ChatSessionRegistry {
+
+    /**
+     * Callbacks invoked when a room is created or removed.
+     * For a given chat they alternate and are never called concurrently. A room removed before its
+     * creation was announced is not announced at all.
+     */
+    public interface RoomListener {
+        void onRoomCreated(Integer idChat);
+
+        void onRoomRemoved(Integer idChat);
+    }
+
+    private final ConcurrentMap<Integer, Set<Session>> rooms = new ConcurrentHashMap<>();
+
+    private final RoomListener roomListener;
+
+    /** Chats whose room was last announced as created, guarded by the stripe locks. */
+    private final Set<Integer> announcedRooms = ConcurrentHashMap.newKeySet();
+
+    private final ReentrantLock[] stripes = new ReentrantLock[64];
+
+    /**
+     * Creates a registry.
+     *
+     * @param roomListener the listener of the room lifecycle.
+     */
+    public ChatSessionRegistry(RoomListener roomListener) {
+        this.roomListener = roomListener;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Adds a session to a chat, creating the room if needed.
+     *
+     * @param idChat  the chat ID.
+     * @param session the session to add.
+     * @return true if the session was not already registered in the chat.
+     */
+    public boolean add(Integer idChat, Session session) {
+        boolean[] added = new boolean[1];
+        boolean[] created = new boolean[1];
+        rooms.compute(idChat, (id, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+                created[0] = true;
+            }
+            added[0] = sessions.add(session);
+            return sessions;
+        });
+        if (created[0]) {
+            announce(idChat);
+        }
+        return added[0];
+    }
+
+    /**
+     * Removes a session from a chat, removing the room when it becomes empty.
+     *
+     * @param idChat  the chat ID.
+     * @param session the session to remove.
+     * @return true if the session was registered in the chat.
+     */
+    public boolean remove(Integer idChat, Session session) {
+        boolean[] removed = new boolean[1];
+        boolean[] emptied = new boolean[1];
+        rooms.computeIfPresent(idChat, (id, sessions) -> {
+            removed[0] = sessions.remove(session);
+            if (sessions.isEmpty()) {
+                emptied[0] = true;
+                return null;
+            }
+            return sessions;
+        });
+        if (emptied[0]) {
+            announce(idChat);
+        }
+        return removed[0];
+    }
+
+    /**
+     * Tells the listener about the current state of a room, if it differs from the last one announced.
+     */
+    private void announce(Integer idChat) {
+        ReentrantLock lock = stripes[Math.floorMod(idChat, stripes.length)];
+        lock.lock();
+        try {
+            if (rooms.containsKey(idChat)) {
+                if (announcedRooms.add(idChat)) {
+                    roomListener.onRoomCreated(idChat);
+                }
+            } else if (announcedRooms.remove(idChat)) {
+                roomListener.onRoomRemoved(idChat);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves a read-only view of the sessions of a chat.
+     *
+     * @param idChat the chat ID.
+     * @return the sessions of the chat, or an empty set if nobody is connected.
+     */
+    public Set<Session> getSessions(Integer idChat) {
+        Set<Session> sessions = rooms.get(idChat);
+        return sessions == null ? Collections.emptySet() : Collections.unmodifiableSet(sessions);
+    }
+
+    /**
+     * Checks whether a chat has at least one connected session.
+     *
+     * @param idChat the chat ID.
+     * @return true if the chat has sessions.
+     */
+    public boolean hasSessions(Integer idChat) {
+        return rooms.containsKey(idChat);
+    }
+
+    /**
+     * Retrieves the IDs of the chats that currently have sessions.
+     *
+     * @return a read-only view of the active chat IDs.
+     */
+    public Set<Integer> getChatIds() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+}
@@ -0,0 +1,50 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+/**
+ * Types of the frames exchanged on the chat WebSocket.
+ */
+public enum EnvelopeType {
+    MESSAGE("message"),
+    JOIN("join"),
+    LEAVE("leave"),
+
+    /**
+     * Users connected to a chat on one node, exchanged between nodes only.
+     */
+    PRESENCE("presence"),
+
+    /**
+     * Chat deleted or expired, its sessions are closed with the reason in the body; exchanged between nodes only.
+     */
+    CLOSE("close");
+
+    private final String wireName;
+
+    EnvelopeType(String wireName) {
+        this.wireName = wireName;
+    }
+
+    /**
+     * Retrieves the name of the type in the JSON frames.
+     *
+     * @return the wire name.
+     */
+    public String getWireName() {
+        return wireName;
+    }
+
+    /**
+     * Finds a type from its wire name.
+     *
+     * @param wireName the name read from a frame.
+     * @return the matching type, or null if unknown.
+     */
+    public static EnvelopeType fromWireName(String wireName) {
+        for (EnvelopeType type : values()) {
+            if (type.wireName.equals(wireName)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
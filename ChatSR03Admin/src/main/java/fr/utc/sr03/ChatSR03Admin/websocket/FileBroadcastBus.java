@@ -0,0 +1,280 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Broadcast bus between processes of the same machine through a shared directory.
+ * <p>
+ * Each chat has append-only files {@code chat-<id>-<generation>.bus} holding one line per envelope,
+ * {@code <origin>\t<frame>}. The generation is the current time divided by {@code chat.bus.file.rotateMillis}:
+ * publishers append to the file of the current generation under a file lock, and every node tails the files
+ * of the chats it is subscribed to, starting at their end when it subscribes. A reader leaves a generation
+ * once it is over by {@link #GRACE_MILLIS} and read to its end; the generations over for more than a
+ * rotation are consumed by every node and deleted.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.bus.type", havingValue = "file")
+public class FileBroadcastBus implements BroadcastBus {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileBroadcastBus.class);
+
+    /** Time left to the publishers that picked a generation just before it ended. */
+    static final long GRACE_MILLIS = 1000;
+
+    private static final Pattern FILE_NAME = Pattern.compile("chat-(\\d+)-(\\d+)\\.bus");
+
+    /**
+     * Read state of one file of a subscribed chat.
+     */
+    private static final class Cursor {
+        private long offset;
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+        private Cursor(long offset) {
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Read state of the files of a subscribed chat, by generation, for the generations still read.
+     */
+    private static final class Tail {
+        private final TreeMap<Long, Cursor> cursors = new TreeMap<>();
+    }
+
+    private final String nodeId;
+    private final Path directory;
+    private final long pollMillis;
+    private final long rotateMillis;
+    private final Map<Integer, Tail> tails = new ConcurrentHashMap<>();
+    /** Publishers of this process are serialized per chat: the file lock is held by the whole JVM. */
+    private final ReentrantLock[] publishLocks = new ReentrantLock[64];
+    private long cleanedGeneration;
+
+    private volatile Consumer<ChatEnvelope> listener = envelope -> { };
+    private volatile boolean running;
+    private Thread poller;
+
+    public FileBroadcastBus(@Value("${chat.bus.nodeId:node}") String nodeName,
+                            @Value("${chat.bus.file.directory:data/bus}") String directory,
+                            @Value("${chat.bus.file.pollMillis:20}") long pollMillis,
+                            @Value("${chat.bus.file.rotateMillis:60000}") long rotateMillis) {
+        this.nodeId = nodeName + "-" + Long.toString(System.nanoTime(), 36);
+        this.directory = Paths.get(directory);
+        this.pollMillis = pollMillis;
+        this.rotateMillis = Math.max(rotateMillis, 2 * GRACE_MILLIS);
+        for (int i = 0; i < publishLocks.length; i++) {
+            publishLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Creates the shared directory and starts the thread tailing the subscribed chats.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        running = true;
+        poller = new Thread(this::poll, "file-broadcast-bus");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /**
+     * Stops the tailing thread.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        poller.interrupt();
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void setListener(Consumer<ChatEnvelope> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void subscribe(Integer chatId) {
+        Tail tail = new Tail();
+        long generation = generationAt(System.currentTimeMillis());
+        try {
+            Path file = fileOf(chatId, generation);
+            tail.cursors.put(generation, new Cursor(Files.exists(file) ? Files.size(file) : 0));
+        } catch (IOException e) {
+            LOGGER.error("Impossible de lire le bus du chat [{}] : {}", chatId, e.getMessage());
+            tail.cursors.put(generation, new Cursor(0));
+        }
+        tails.put(chatId, tail);
+    }
+
+    @Override
+    public void unsubscribe(Integer chatId) {
+        tails.remove(chatId);
+    }
+
+    @Override
+    public void publish(ChatEnvelope envelope) {
+        byte[] line = (nodeId + "\t" + ChatEnvelopeCodec.encode(envelope) + "\n").getBytes(StandardCharsets.UTF_8);
+        Path file = fileOf(envelope.getChatId(), generationAt(System.currentTimeMillis()));
+        ReentrantLock publishLock = publishLocks[Math.floorMod(envelope.getChatId(), publishLocks.length)];
+        publishLock.lock();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(line);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            LOGGER.error("Impossible de publier sur le bus du chat [{}] : {}", envelope.getChatId(), e.toString());
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * Loop of the tailing thread.
+     */
+    private void poll() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Integer, Tail> entry : tails.entrySet()) {
+                readGenerations(entry.getKey(), entry.getValue(), now);
+            }
+            deleteConsumedFiles(generationAt(now));
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the generations of a chat from the oldest one still open, and leaves the ones that are over.
+     */
+    private void readGenerations(Integer chatId, Tail tail, long now) {
+        long current = generationAt(now);
+        tail.cursors.putIfAbsent(current, new Cursor(0));
+        Iterator<Map.Entry<Long, Cursor>> it = tail.cursors.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Cursor> generation = it.next();
+            boolean over = generation.getKey() < current && now >= (generation.getKey() + 1) * rotateMillis + GRACE_MILLIS;
+            // Read to its end after the grace: no publisher writes to it anymore
+            if (!readNewLines(chatId, generation.getKey(), generation.getValue()) && over) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads the lines appended to a chat file since the last poll and delivers the envelopes of the other nodes.
+     *
+     * @return true if new bytes were read.
+     */
+    private boolean readNewLines(Integer chatId, long generation, Cursor cursor) {
+        Path file = fileOf(chatId, generation);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= cursor.offset) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - cursor.offset, 1 << 20));
+            channel.read(buffer, cursor.offset);
+            buffer.flip();
+            cursor.offset += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b != '\n') {
+                    cursor.partialLine.write(b);
+                    continue;
+                }
+                String line = cursor.partialLine.toString(StandardCharsets.UTF_8);
+                cursor.partialLine.reset();
+                int separator = line.indexOf('\t');
+                if (separator > 0 && !line.startsWith(nodeId + "\t")) {
+                    ChatEnvelope envelope = ChatEnvelopeCodec.decode(line.substring(separator + 1), line.substring(0, separator));
+                    if (envelope != null) {
+                        listener.accept(envelope);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Impossible de lire le bus du chat [{}] : {}", chatId, e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Deletes the files of the generations older than two rotations, once per generation.
+     */
+    private void deleteConsumedFiles(long current) {
+        if (current == cleanedGeneration) {
+            return;
+        }
+        cleanedGeneration = current;
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < current - 1) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        LOGGER.warn("Impossible de supprimer le fichier de bus [{}] : {}", file, e.getMessage());
+                    }
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.error("Impossible de lister le répertoire du bus : {}", e.getMessage());
+        }
+    }
+
+    private long generationAt(long millis) {
+        return millis / rotateMillis;
+    }
+
+    private Path fileOf(Integer chatId, long generation) {
+        return directory.resolve("chat-" + chatId + "-" + generation + ".bus");
+    }
+}
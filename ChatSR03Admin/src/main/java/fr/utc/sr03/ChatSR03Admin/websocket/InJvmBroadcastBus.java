@@ -0,0 +1,105 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+/**
+ * Broadcast bus between the nodes running in the same JVM, for instance several application
+ * contexts started by a multi-node test. With a single node it simply delivers nothing.
+ * <p>
+ * The subscriptions are shared by the whole JVM, so a node drops its own when its context stops, after the
+ * {@link WebSocketServer} closed its sessions and before the {@link RoomExecutors} stop: the envelopes of the other nodes would
+ * otherwise be handed to its stopped shards, failing the publication of the other nodes.
+ */
+@Component
+@ConditionalOnProperty(name = "chat.bus.type", havingValue = "in-jvm", matchIfMissing = true)
+public class InJvmBroadcastBus implements BroadcastBus, SmartLifecycle {
+
+    private static final ConcurrentMap<Integer, Set<InJvmBroadcastBus>> SUBSCRIPTIONS = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+
+    private volatile Consumer<ChatEnvelope> listener = envelope -> { };
+
+    private volatile boolean running;
+
+    public InJvmBroadcastBus(@Value("${chat.bus.nodeId:node}") String nodeName) {
+        this.nodeId = nodeName + "-" + Long.toString(System.nanoTime(), 36);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void setListener(Consumer<ChatEnvelope> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void subscribe(Integer chatId) {
+        SUBSCRIPTIONS.compute(chatId, (id, nodes) -> {
+            if (nodes == null) {
+                nodes = ConcurrentHashMap.newKeySet();
+            }
+            nodes.add(this);
+            return nodes;
+        });
+    }
+
+    @Override
+    public void unsubscribe(Integer chatId) {
+        SUBSCRIPTIONS.computeIfPresent(chatId, (id, nodes) -> {
+            nodes.remove(this);
+            return nodes.isEmpty() ? null : nodes;
+        });
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Drops the subscriptions of this node and stops delivering to it.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        listener = envelope -> { };
+        for (Integer chatId : SUBSCRIPTIONS.keySet()) {
+            unsubscribe(chatId);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return RoomExecutors.PHASE + 256;
+    }
+
+    @Override
+    public void publish(ChatEnvelope envelope) {
+        Set<InJvmBroadcastBus> nodes = SUBSCRIPTIONS.get(envelope.getChatId());
+        if (nodes == null) {
+            return;
+        }
+        for (InJvmBroadcastBus node : nodes) {
+            if (node != this) {
+                node.listener.accept(envelope);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+/**
+ * Policy applied when the outbound queue of a WebSocket session is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discards the oldest queued frame to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Closes the session of the client that cannot keep up.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,368 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks the users connected to each chat and sends presence as versioned deltas.
+ * <p>
+ * Joins and leaves only update counters and mark the user as changed. Every {@code coalesceMillis}
+ * the changes of each chat are turned into a single {@code presenceDelta} frame carrying the next
+ * version, so a join storm costs one frame per session and per window instead of one full list per
+ * join. A user who joins and leaves within the same window produces no delta at all.
+ * <p>
+ * A full snapshot of the last published version is only sent to a session that just connected, or
+ * that asks for it after noticing a version gap. The same mechanism publishes the changes of the
+ * local sessions to the other nodes through the bus: {@code +id} and {@code -id} entries for deltas,
+ * a leading {@code =} for a full set.
+ */
+public final class PresenceTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceTracker.class);
+
+    /**
+     * Destination of the frames produced by the tracker.
+     */
+    public interface Sink {
+        /**
+         * Queues a frame for every local session of a chat.
+         */
+        void sendToChat(Integer idChat, String frame);
+
+        /**
+         * Publishes the presence changes of this node to the other nodes.
+         */
+        void publish(Integer idChat, String body);
+    }
+
+    /**
+     * Presence state of one chat.
+     */
+    private static final class RoomPresence {
+        private final ReentrantLock lock = new ReentrantLock();
+        /** Number of local sessions of each user. */
+        private final Map<Integer, Integer> localSessions = new HashMap<>();
+        /** Users connected on the other nodes, by node. */
+        private final Map<String, Set<Integer>> remoteUsers = new HashMap<>();
+        /** Number of sources (local sessions, remote nodes) reporting each user. */
+        private final Map<Integer, Integer> references = new HashMap<>();
+        /** Connected users as of the last published version. */
+        private final Set<Integer> published = new HashSet<>();
+        /** Local users as of the last publication on the bus. */
+        private final Set<Integer> localPublished = new HashSet<>();
+        private final Set<Integer> changed = new HashSet<>();
+        private final Set<Integer> localChanged = new HashSet<>();
+        private long version;
+        /** Set when the room is dropped from the map, a thread holding a stale reference must retry. */
+        private boolean removed;
+    }
+
+    private final ConcurrentMap<Integer, RoomPresence> rooms = new ConcurrentHashMap<>();
+    private final Set<Integer> dirtyRooms = ConcurrentHashMap.newKeySet();
+    private final Sink sink;
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Creates a tracker and starts its flush timer.
+     *
+     * @param sink           the destination of the frames.
+     * @param coalesceMillis the window during which changes are coalesced.
+     */
+    public PresenceTracker(Sink sink, long coalesceMillis) {
+        this.sink = sink;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // An exception would cancel the timer, and presence would no longer be published
+                LOGGER.error("Erreur lors de la publication de la présence", e);
+            }
+        }, coalesceMillis, coalesceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a new local session of a user.
+     */
+    public void localJoined(Integer idChat, Integer idUser) {
+        RoomPresence room = lockRoom(idChat);
+        try {
+            if (room.localSessions.merge(idUser, 1, Integer::sum) == 1) {
+                room.localChanged.add(idUser);
+                addReference(room, idUser);
+            }
+        } finally {
+            room.lock.unlock();
+        }
+        dirtyRooms.add(idChat);
+    }
+
+    /**
+     * Records the end of a local session of a user.
+     */
+    public void localLeft(Integer idChat, Integer idUser) {
+        RoomPresence room = rooms.get(idChat);
+        if (room == null) {
+            return;
+        }
+        room.lock.lock();
+        try {
+            Integer count = room.localSessions.get(idUser);
+            if (count == null) {
+                return;
+            }
+            if (count == 1) {
+                room.localSessions.remove(idUser);
+                room.localChanged.add(idUser);
+                removeReference(room, idUser);
+            } else {
+                room.localSessions.put(idUser, count - 1);
+            }
+        } finally {
+            room.lock.unlock();
+        }
+        dirtyRooms.add(idChat);
+    }
+
+    /**
+     * Applies the presence published by another node.
+     *
+     * @param idChat the chat ID.
+     * @param origin the node that published the presence.
+     * @param body   the {@code +id}/{@code -id} changes, or {@code =} followed by the full set.
+     * @return true if the node was not known in this chat.
+     */
+    public boolean applyRemote(Integer idChat, String origin, String body) {
+        RoomPresence room = lockRoom(idChat);
+        boolean unknown;
+        try {
+            Set<Integer> users = room.remoteUsers.get(origin);
+            unknown = users == null;
+            if (unknown) {
+                users = new HashSet<>();
+                room.remoteUsers.put(origin, users);
+            }
+            if (body.startsWith("=")) {
+                for (Integer idUser : users) {
+                    removeReference(room, idUser);
+                }
+                users.clear();
+                for (String id : splitIds(body.substring(1))) {
+                    Integer idUser = Integer.valueOf(id);
+                    if (users.add(idUser)) {
+                        addReference(room, idUser);
+                    }
+                }
+            } else {
+                for (String entry : splitIds(body)) {
+                    Integer idUser = Integer.valueOf(entry.substring(1));
+                    if (entry.charAt(0) == '+' && users.add(idUser)) {
+                        addReference(room, idUser);
+                    } else if (entry.charAt(0) == '-' && users.remove(idUser)) {
+                        removeReference(room, idUser);
+                    }
+                }
+            }
+            if (users.isEmpty()) {
+                room.remoteUsers.remove(origin);
+            }
+        } finally {
+            room.lock.unlock();
+        }
+        dirtyRooms.add(idChat);
+        return unknown;
+    }
+
+    /**
+     * Forgets what the other nodes reported for a chat, when this node stops following it.
+     */
+    public void clearRemote(Integer idChat) {
+        RoomPresence room = rooms.get(idChat);
+        if (room == null) {
+            return;
+        }
+        room.lock.lock();
+        try {
+            for (Set<Integer> users : room.remoteUsers.values()) {
+                for (Integer idUser : users) {
+                    removeReference(room, idUser);
+                }
+            }
+            room.remoteUsers.clear();
+        } finally {
+            room.lock.unlock();
+        }
+        dirtyRooms.add(idChat);
+    }
+
+    /**
+     * Builds the snapshot frame of the last published version of a chat.
+     */
+    public String snapshotFrame(Integer idChat) {
+        RoomPresence room = rooms.get(idChat);
+        if (room == null) {
+            return ChatEnvelopeCodec.encodePresenceSnapshot(idChat, 0, Set.of());
+        }
+        room.lock.lock();
+        try {
+            return ChatEnvelopeCodec.encodePresenceSnapshot(idChat, room.version, room.published);
+        } finally {
+            room.lock.unlock();
+        }
+    }
+
+    /**
+     * Builds the full set of the local users of a chat, to be published to the other nodes.
+     * The set counts as published: a user in it who leaves before the next flush is then published as left.
+     */
+    public String localSnapshotBody(Integer idChat) {
+        RoomPresence room = rooms.get(idChat);
+        StringJoiner body = new StringJoiner(",", "=", "");
+        if (room != null) {
+            room.lock.lock();
+            try {
+                room.localSessions.keySet().forEach(idUser -> body.add(idUser.toString()));
+                room.localPublished.clear();
+                room.localPublished.addAll(room.localSessions.keySet());
+            } finally {
+                room.lock.unlock();
+            }
+        }
+        return body.toString();
+    }
+
+    /**
+     * Retrieves the users currently connected to a chat on every node.
+     */
+    public Set<Integer> getConnectedUsers(Integer idChat) {
+        RoomPresence room = rooms.get(idChat);
+        if (room == null) {
+            return Set.of();
+        }
+        room.lock.lock();
+        try {
+            return new HashSet<>(room.references.keySet());
+        } finally {
+            room.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flush timer.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+    }
+
+    /**
+     * Publishes the coalesced changes of every chat changed since the last flush.
+     */
+    void flush() {
+        for (Iterator<Integer> it = dirtyRooms.iterator(); it.hasNext(); ) {
+            Integer idChat = it.next();
+            it.remove();
+            RoomPresence room = rooms.get(idChat);
+            if (room != null) {
+                flush(idChat, room);
+            }
+        }
+    }
+
+    private void flush(Integer idChat, RoomPresence room) {
+        String frame = null;
+        String busBody = null;
+        room.lock.lock();
+        try {
+            List<Integer> joined = new ArrayList<>();
+            List<Integer> left = new ArrayList<>();
+            for (Integer idUser : room.changed) {
+                boolean present = room.references.containsKey(idUser);
+                if (present && room.published.add(idUser)) {
+                    joined.add(idUser);
+                } else if (!present && room.published.remove(idUser)) {
+                    left.add(idUser);
+                }
+            }
+            room.changed.clear();
+            if (!joined.isEmpty() || !left.isEmpty()) {
+                room.version++;
+                frame = ChatEnvelopeCodec.encodePresenceDelta(idChat, room.version, joined, left);
+            }
+
+            StringJoiner body = new StringJoiner(",");
+            for (Integer idUser : room.localChanged) {
+                boolean present = room.localSessions.containsKey(idUser);
+                if (present && room.localPublished.add(idUser)) {
+                    body.add("+" + idUser);
+                } else if (!present && room.localPublished.remove(idUser)) {
+                    body.add("-" + idUser);
+                }
+            }
+            room.localChanged.clear();
+            if (body.length() > 0) {
+                busBody = body.toString();
+            }
+
+            if (room.references.isEmpty() && room.published.isEmpty() && room.localPublished.isEmpty()) {
+                room.removed = true;
+                rooms.remove(idChat, room);
+            }
+        } finally {
+            room.lock.unlock();
+        }
+        if (frame != null) {
+            sink.sendToChat(idChat, frame);
+        }
+        if (busBody != null) {
+            sink.publish(idChat, busBody);
+        }
+    }
+
+    /**
+     * Retrieves the state of a chat, creating it if needed, and locks it.
+     */
+    private RoomPresence lockRoom(Integer idChat) {
+        while (true) {
+            RoomPresence room = rooms.computeIfAbsent(idChat, k -> new RoomPresence());
+            room.lock.lock();
+            if (!room.removed) {
+                return room;
+            }
+            room.lock.unlock();
+        }
+    }
+
+    private static void addReference(RoomPresence room, Integer idUser) {
+        if (room.references.merge(idUser, 1, Integer::sum) == 1) {
+            room.changed.add(idUser);
+        }
+    }
+
+    private static void removeReference(RoomPresence room, Integer idUser) {
+        Integer count = room.references.get(idUser);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            room.references.remove(idUser);
+            room.changed.add(idUser);
+        } else {
+            room.references.put(idUser, count - 1);
+        }
+    }
+
+    private static String[] splitIds(String ids) {
+        return ids.isEmpty() ? new String[0] : ids.split(",");
+    }
+}
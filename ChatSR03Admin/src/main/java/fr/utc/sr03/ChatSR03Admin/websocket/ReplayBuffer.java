@@ -0,0 +1,110 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import java.util.function.Consumer;
+
+/**
+ * Keeps the last messages of one chat to replay them to a reconnecting client.
+ * <p>
+ * The buffer lives while the chat has sessions on this node, hence while the node receives the messages of
+ * the chat from the other nodes. It starts empty at the last number given in the chat when the room opens,
+ * and every message delivered afterwards moves it forward. The encoded frames of the last {@code capacity}
+ * messages are kept in a ring, so a client that reconnects with the last sequence it has seen only receives
+ * the frames it missed. A client that fell further behind than the ring, or saw a message this node did not
+ * receive yet, must reload the history instead.
+ * <p>
+ * The buffer is not thread-safe: it is only used on the shard of its chat in {@link RoomExecutors}.
+ */
+public class ReplayBuffer {
+
+    private final int capacity;
+    private long[] sequences;
+    private Integer[] senders;
+    private String[] frames;
+    /** Index of the oldest frame in the ring. */
+    private int head;
+    private int size;
+    private long lastSequence;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity     the maximum number of frames kept.
+     * @param lastSequence the last sequence number already given in the chat.
+     */
+    public ReplayBuffer(int capacity, long lastSequence) {
+        this.capacity = capacity;
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Moves the last sequence forward to the number of a delivered message.
+     *
+     * @param sequence the sequence number of the message.
+     */
+    public void observe(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+
+    /**
+     * Keeps the frame of a message, evicting the oldest one when the ring is full.
+     *
+     * @param sequence the sequence number of the message.
+     * @param senderId the ID of the sender, who does not get its own messages back.
+     * @param frame    the encoded frame.
+     */
+    public void add(long sequence, Integer senderId, String frame) {
+        if (capacity <= 0) {
+            return;
+        }
+        if (frames == null) {
+            sequences = new long[capacity];
+            senders = new Integer[capacity];
+            frames = new String[capacity];
+        }
+        int index;
+        if (size < capacity) {
+            index = (head + size) % capacity;
+            size++;
+        } else {
+            index = head;
+            head = (head + 1) % capacity;
+        }
+        sequences[index] = sequence;
+        senders[index] = senderId;
+        frames[index] = frame;
+    }
+
+    /**
+     * Sends the frames following a sequence number.
+     *
+     * @param after     the last sequence number seen by the client.
+     * @param recipient the user ID of the client, its own messages are skipped.
+     * @param sender    receives each missed frame in order.
+     * @return false if the client is too far behind, or ahead of this buffer, and nothing was sent.
+     */
+    public boolean replay(long after, Integer recipient, Consumer<String> sender) {
+        if (after > lastSequence || after < getOldestSequence() - 1) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % capacity;
+            if (sequences[index] > after && !senders[index].equals(recipient)) {
+                sender.accept(frames[index]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the sequence number of the oldest frame that can be replayed.
+     *
+     * @return the oldest sequence, or the next one if the buffer is empty.
+     */
+    public long getOldestSequence() {
+        return size == 0 ? lastSequence + 1 : sequences[head];
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+}
@@ -0,0 +1,127 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sharded single-threaded executors for the chat rooms.
+ * <p>
+ * Each chat ID is hashed onto one of N shards, each shard being a single thread with its own mailbox.
+ * All the events of a room run on the same thread in submission order, so the ordering of a room no
+ * longer depends on the container thread that received the event, and rooms of different shards run
+ * in parallel. The number of shards defaults to the number of cores.
+ * <p>
+ * The depth of each mailbox is exposed as the {@code chat.room.shard.queue.depth} gauge and the number
+ * of processed events as {@code chat.room.shard.completed}, both tagged by shard, to spot hot rooms.
+ * <p>
+ * The shards stop in {@link #PHASE}, once the web server has stopped and closed the WebSocket sessions,
+ * and before the message pipeline they append to.
+ */
+@Component
+public class RoomExecutors implements SmartLifecycle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RoomExecutors.class);
+
+    /** Stop phase, below the {@code DEFAULT_PHASE - 2048} phase in which Spring Boot stops the web server. */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 3072;
+
+    private volatile boolean running;
+
+    private final ThreadPoolExecutor[] shards;
+
+    public RoomExecutors(MeterRegistry meterRegistry,
+                         @Value("${chat.websocket.roomShards:0}") int shardCount) {
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        shards = new ThreadPoolExecutor[count];
+        for (int i = 0; i < count; i++) {
+            String name = "room-shard-" + i;
+            ThreadPoolExecutor shard = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), r -> new Thread(r, name));
+            shards[i] = shard;
+            Gauge.builder("chat.room.shard.queue.depth", shard, s -> s.getQueue().size())
+                    .description("Events waiting in the mailbox of a room shard")
+                    .tag("shard", String.valueOf(i))
+                    .register(meterRegistry);
+            Gauge.builder("chat.room.shard.completed", shard, ThreadPoolExecutor::getCompletedTaskCount)
+                    .description("Events processed by a room shard")
+                    .tag("shard", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+        LOGGER.info("{} shards de salons démarrés", count);
+    }
+
+    /**
+     * Runs an event of a chat on the shard of the chat, after the events already submitted for it.
+     *
+     * @param idChat the chat ID.
+     * @param event  the event to process.
+     */
+    public void execute(Integer idChat, Runnable event) {
+        shards[shardOf(idChat)].execute(() -> {
+            try {
+                event.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Erreur lors du traitement d'un évènement du chat [{}]", idChat, e);
+            }
+        });
+    }
+
+    /**
+     * Retrieves the depth of the mailbox of each shard.
+     *
+     * @return the number of waiting events, by shard.
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depths[i] = shards[i].getQueue().size();
+        }
+        return depths;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Processes the events already submitted, then stops the shards.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        for (ThreadPoolExecutor shard : shards) {
+            shard.shutdown();
+        }
+        for (ThreadPoolExecutor shard : shards) {
+            try {
+                shard.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private int shardOf(Integer idChat) {
+        int hash = idChat.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+}
@@ -0,0 +1,221 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded outbound queue of a WebSocket session.
+ * <p>
+ * Frames are sent one at a time through {@link Session#getAsyncRemote()}: the next frame is
+ * only sent when the container reports the completion of the previous one, so the thread
+ * that enqueues a frame never waits for the client. When the queue is full the configured
+ * {@link OverflowPolicy} applies, and a client whose in-flight frame has not completed after
+ * {@code maxLagMillis} is evicted, by the next {@link #offer} or by {@link #evictIfLagging()}.
+ */
+public class SessionOutbox implements SendHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionOutbox.class);
+
+    private static final String LAG_REASON = "Client too slow";
+
+    private final Session session;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long maxLagMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<String> queue = new ArrayDeque<>();
+    private boolean sending;
+    private long sendingSince;
+    private boolean closed;
+    private long dropped;
+
+    /**
+     * Creates the outbox of a session.
+     *
+     * @param session        the WebSocket session.
+     * @param capacity       the maximum number of frames waiting behind the in-flight one.
+     * @param overflowPolicy the policy applied when the queue is full.
+     * @param maxLagMillis   the maximum time a frame may stay in flight before the client is evicted.
+     */
+    public SessionOutbox(Session session, int capacity, OverflowPolicy overflowPolicy, long maxLagMillis) {
+        this.session = session;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * Queues a frame for the session without blocking.
+     *
+     * @param frame the frame to send.
+     * @return true if the frame was accepted, false if the outbox is closed or the client was evicted.
+     */
+    public boolean offer(String frame) {
+        String next = null;
+        String evictionReason = null;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (!sending) {
+                sending = true;
+                sendingSince = now;
+                next = frame;
+            } else if (now - sendingSince > maxLagMillis) {
+                evictionReason = LAG_REASON;
+            } else if (queue.size() < capacity) {
+                queue.addLast(frame);
+            } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                queue.pollFirst();
+                queue.addLast(frame);
+                dropped++;
+            } else {
+                evictionReason = "Outbound queue full";
+            }
+            if (evictionReason != null) {
+                closed = true;
+                queue.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (evictionReason != null) {
+            evict(evictionReason);
+            return false;
+        }
+        if (next != null) {
+            send(next);
+        }
+        return true;
+    }
+
+    /**
+     * Evicts the client if its in-flight frame has not completed after {@code maxLagMillis}, for the clients
+     * that stopped reading while no new frame is offered to them.
+     *
+     * @return true if the client was evicted.
+     */
+    public boolean evictIfLagging() {
+        lock.lock();
+        try {
+            if (closed || !sending || System.currentTimeMillis() - sendingSince <= maxLagMillis) {
+                return false;
+            }
+            closed = true;
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+        evict(LAG_REASON);
+        return true;
+    }
+
+    /**
+     * Called by the container when the in-flight frame has been sent or has failed.
+     *
+     * @param result the result of the send.
+     */
+    @Override
+    public void onResult(SendResult result) {
+        if (!result.isOK()) {
+            LOGGER.error("Erreur lors de l'envoi du message à la session [{}] : {}", session.getId(),
+                    result.getException() != null ? result.getException().getMessage() : "unknown");
+            close();
+            return;
+        }
+        String next;
+        lock.lock();
+        try {
+            next = closed ? null : queue.pollFirst();
+            if (next == null) {
+                sending = false;
+            } else {
+                sendingSince = System.currentTimeMillis();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (next != null) {
+            send(next);
+        }
+    }
+
+    /**
+     * Discards the pending frames and refuses new ones.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of frames waiting behind the in-flight one.
+     *
+     * @return the queue depth.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the number of frames discarded by the {@link OverflowPolicy#DROP_OLDEST} policy.
+     *
+     * @return the number of dropped frames.
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts the asynchronous send of a frame.
+     *
+     * @param frame the frame to send.
+     */
+    private void send(String frame) {
+        try {
+            session.getAsyncRemote().sendText(frame, this);
+        } catch (RuntimeException e) {
+            onResult(new SendResult(e));
+        }
+    }
+
+    /**
+     * Closes the session of a client that cannot keep up.
+     *
+     * @param reason the reason sent to the client.
+     */
+    private void evict(String reason) {
+        LOGGER.warn("Session [{}] évincée : {}", session.getId(), reason);
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, reason));
+        } catch (IOException e) {
+            LOGGER.error("Erreur lors de la fermeture de la session [{}] : {}", session.getId(), e.getMessage());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package fr.utc.sr03.ChatSR03Admin.websocket;
 
+import jakarta.websocket.server.ServerEndpointConfig;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -12,4 +13,21 @@ public class WebSocketConfig {
     public ServerEndpointExporter serverEndpoint() {
         return new ServerEndpointExporter();
     }
-}
\ No newline at end of file
+
+    /**
+     * Registers the chat endpoint on the container of this application, served by the bean of this context.
+     * @param webSocketServer the chat endpoint
+     * @return the endpoint configuration
+     */
+    @Bean
+    public ServerEndpointConfig chatEndpoint(WebSocketServer webSocketServer) {
+        return ServerEndpointConfig.Builder.create(WebSocketServer.class, WebSocketServer.PATH)
+                .configurator(new ServerEndpointConfig.Configurator() {
+                    @Override
+                    public <T> T getEndpointInstance(Class<T> endpointClass) {
+                        return endpointClass.cast(webSocketServer);
+                    }
+                })
+                .build();
+    }
+}
@@ -1,55 +1,153 @@
 package fr.utc.sr03.ChatSR03Admin.websocket;
 
-import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import fr.utc.sr03.ChatSR03Admin.entity.Message;
+import fr.utc.sr03.ChatSR03Admin.service.ChatSequences;
+import fr.utc.sr03.ChatSR03Admin.service.MessageStore;
 import jakarta.websocket.*;
 import jakarta.websocket.server.PathParam;
-import jakarta.websocket.server.ServerEndpoint;
-import jakarta.websocket.server.ServerEndpointConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Hashtable;
+import java.util.Date;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * WebSocket server endpoint for handling chat sessions.
+ * <p>
+ * Envelopes are delivered to the local sessions directly and published on the {@link BroadcastBus}
+ * for the sessions connected to other nodes. Envelopes received from the bus are deduplicated by
+ * origin node and sequence before being delivered locally.
+ * <p>
+ * Every event of a chat (open, close, message, bus envelope, presence) runs on the shard of the chat
+ * in {@link RoomExecutors}, so the events of a room are processed one at a time and in order.
+ * <p>
+ * Chat messages are numbered per chat by {@link ChatSequences}, shared by every node, on the node that
+ * receives them from their sender. A message is stored first and only delivered once the store accepted it;
+ * otherwise its sender gets a {@code messageRejected} frame and nobody else sees it. The number travels in
+ * the bus envelope, so every node delivers and stores the message under the same number. A client
+ * reconnecting with {@code ?lastSeq=<chatSequence>} receives the messages it missed from the
+ * {@link ReplayBuffer} of the chat, or a {@code resumeGap} frame if this node cannot tell which ones.
+ * <p>
+ * The endpoint is registered at {@link #PATH} by {@link WebSocketConfig}, which hands this bean to the
+ * container of its own application context.
  */
 @Component
-@ServerEndpoint(value = "/WebSocketServer/{idChat}/{idUser}", configurator = WebSocketServer.EndpointConfigurator.class)
-public class WebSocketServer {
+public class WebSocketServer implements SmartLifecycle {
     private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketServer.class);
 
-    private static WebSocketServer singleton;
+    /** Path of the endpoint, with the chat and the user. */
+    public static final String PATH = "/WebSocketServer/{idChat}/{idUser}";
 
-    private static UserRepository userRepository;
+    /**
+     * Stop phase, above the {@code DEFAULT_PHASE - 2048} phase in which Spring Boot stops the web server, so the
+     * clients still receive their close frame, and after its graceful shutdown.
+     */
+    public static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 1536;
+
+    private static final String STOP_REASON = "Server stopping";
+
+    private volatile boolean running;
+
+    private final ChatSessionRegistry chatSessions;
+
+    private final int outboundCapacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final long maxLagMillis;
+
+    private final int replayCapacity;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final MessageStore messageStore;
+
+    private final ChatSequences chatSequences;
+
+    private final BroadcastBus broadcastBus;
+
+    private final PresenceTracker presenceTracker;
+
+    private final RoomExecutors roomExecutors;
+
+    /** Last frames of each chat with local sessions, only used on the shard of the chat. */
+    private final ConcurrentMap<Integer, ReplayBuffer> replayBuffers = new ConcurrentHashMap<>();
 
-    private final Hashtable<Integer, Set<Session>> chatSessions = new Hashtable<>();
+    /** Last sequence received from each other node, by chat. */
+    private final ConcurrentMap<Integer, ConcurrentMap<String, AtomicLong>> lastSequences = new ConcurrentHashMap<>();
 
     /**
-     * Private constructor to enforce singleton pattern.
-     * @param userRepository the user repository
+     * Creates the endpoint.
+     * @param messageStore the store of the chat messages
+     * @param chatSequences the numbering of the messages of each chat
+     * @param broadcastBus the bus to the other nodes
+     * @param roomExecutors the executors running the events of the chats
+     * @param outboundCapacity the size of the outbound queue of each session
+     * @param overflowPolicy the policy applied when an outbound queue is full
+     * @param maxLagMillis the time after which a client that does not read its messages is evicted
+     * @param presenceCoalesceMillis the window during which presence changes are coalesced
+     * @param replayCapacity the number of messages of each chat kept for reconnecting clients
      */
-    private WebSocketServer(UserRepository userRepository) {
-        WebSocketServer.userRepository = userRepository;
-    }
+    private WebSocketServer(MessageStore messageStore,
+                            ChatSequences chatSequences,
+                            BroadcastBus broadcastBus,
+                            RoomExecutors roomExecutors,
+                            @Value("${chat.websocket.outbound.capacity:256}") int outboundCapacity,
+                            @Value("${chat.websocket.outbound.overflowPolicy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                            @Value("${chat.websocket.outbound.maxLagMillis:10000}") long maxLagMillis,
+                            @Value("${chat.websocket.presence.coalesceMillis:100}") long presenceCoalesceMillis,
+                            @Value("${chat.websocket.replay.capacity:128}") int replayCapacity) {
+        this.messageStore = messageStore;
+        this.chatSequences = chatSequences;
+        this.broadcastBus = broadcastBus;
+        this.roomExecutors = roomExecutors;
+        this.chatSessions = new ChatSessionRegistry(new ChatSessionRegistry.RoomListener() {
+            @Override
+            public void onRoomCreated(Integer idChat) {
+                broadcastBus.subscribe(idChat);
+                // Seeded once subscribed, so every later number is either counted here or delivered here
+                replayBuffer(idChat);
+            }
 
-    public static class EndpointConfigurator extends ServerEndpointConfig.Configurator {
-        @Override
-        @SuppressWarnings("unchecked")
-        public <T> T getEndpointInstance(Class<T> endpointClass) {
-            return (T) WebSocketServer.getInstance();
-        }
-    }
+            @Override
+            public void onRoomRemoved(Integer idChat) {
+                broadcastBus.unsubscribe(idChat);
+                presenceTracker.clearRemote(idChat);
+                lastSequences.remove(idChat);
+                // The messages sent while the room is closed here are not received: start over when it reopens
+                replayBuffers.remove(idChat);
+            }
+        });
+        this.presenceTracker = new PresenceTracker(new PresenceTracker.Sink() {
+            @Override
+            public void sendToChat(Integer idChat, String frame) {
+                roomExecutors.execute(idChat, () -> {
+                    for (Session s : chatSessions.getSessions(idChat)) {
+                        sendMessage(s, frame);
+                    }
+                });
+            }
 
-    public static WebSocketServer getInstance() {
-        if (WebSocketServer.singleton == null) {
-            WebSocketServer.singleton = new WebSocketServer(userRepository);
-        }
-        return WebSocketServer.singleton;
+            @Override
+            public void publish(Integer idChat, String body) {
+                roomExecutors.execute(idChat, () -> broadcastBus.publish(newEnvelope(EnvelopeType.PRESENCE, idChat, 0, body)));
+            }
+        }, presenceCoalesceMillis);
+        broadcastBus.setListener(envelope -> roomExecutors.execute(envelope.getChatId(), () -> onBusEnvelope(envelope)));
+        this.outboundCapacity = outboundCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.maxLagMillis = maxLagMillis;
+        this.replayCapacity = replayCapacity;
     }
 
     /**
@@ -63,18 +161,81 @@ public class WebSocketServer {
                      @PathParam("idChat") Integer idChat,
                      @PathParam("idUser") Integer idUser
     ) {
+        if (!running) {
+            try {
+                session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, STOP_REASON));
+            } catch (IOException e) {
+                LOGGER.error("Erreur lors du refus de la session [{}] : {}", session.getId(), e.getMessage());
+            }
+            return;
+        }
         LOGGER.info("Session ouverte pour [{}] dans le chat [{}]", idUser, idChat);
 
         session.getUserProperties().put("idChat", idChat);
         session.getUserProperties().put("idUser", idUser);
+        session.getUserProperties().put("outbox", new SessionOutbox(session, outboundCapacity, overflowPolicy, maxLagMillis));
+
+        Long lastSeq = parseLastSeq(session);
+        roomExecutors.execute(idChat, () -> {
+            chatSessions.add(idChat, session);
+            presenceTracker.localJoined(idChat, idUser);
+            sendMessage(session, presenceTracker.snapshotFrame(idChat));
+            if (lastSeq != null) {
+                resume(session, idChat, idUser, lastSeq);
+            }
+            sendMessageToAll(newEnvelope(EnvelopeType.JOIN, idChat, idUser, null));
+        });
+    }
+
+    /**
+     * Reads the last sequence number seen by a reconnecting client from the handshake query.
+     * @param session the WebSocket session
+     * @return the sequence number, or null for a first connection
+     */
+    private static Long parseLastSeq(Session session) {
+        List<String> values = session.getRequestParameterMap().get("lastSeq");
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(values.get(0));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Paramètre lastSeq invalide pour la session [{}] : {}", session.getId(), values.get(0));
+            return null;
+        }
+    }
+
+    /**
+     * Sends the messages a reconnecting client missed, or a resumeGap frame if they are no longer buffered.
+     * Runs on the shard of the chat, before any message received after the reconnection.
+     * @param session the WebSocket session
+     * @param idChat the chat ID
+     * @param idUser the user ID
+     * @param lastSeq the last sequence number seen by the client
+     */
+    private void resume(Session session, Integer idChat, Integer idUser, long lastSeq) {
+        ReplayBuffer replayBuffer = replayBuffer(idChat);
+        if (!replayBuffer.replay(lastSeq, idUser, frame -> sendMessage(session, frame))) {
+            LOGGER.info("Reprise impossible pour [{}] dans le chat [{}] depuis [{}], plus ancien disponible [{}]",
+                    idUser, idChat, lastSeq, replayBuffer.getOldestSequence());
+            sendMessage(session, ChatEnvelopeCodec.encodeResumeGap(idChat, lastSeq,
+                    replayBuffer.getOldestSequence(), replayBuffer.getLastSequence()));
+        }
+    }
 
-        //chatSessions.computeIfAbsent(idChat, k -> new HashSet<>()).add(session);
-        if(chatSessions.get(idChat) == null){
-            chatSessions.put(idChat, new HashSet<>());
+    /**
+     * Retrieves the replay buffer of a chat, created when the room opens on this node with the last number
+     * given in the chat, once the node is subscribed to it. Called on the shard of the chat only.
+     * @param idChat the chat ID
+     * @return the replay buffer
+     */
+    private ReplayBuffer replayBuffer(Integer idChat) {
+        ReplayBuffer replayBuffer = replayBuffers.get(idChat);
+        if (replayBuffer == null) {
+            replayBuffer = new ReplayBuffer(replayCapacity, chatSequences.current(idChat));
+            replayBuffers.put(idChat, replayBuffer);
         }
-        chatSessions.get(idChat).add(session);
-        sendConnectedUsers(idChat);
-        sendMessageToAll(idChat, "User [" + idUser + "] has joined the chat.");
+        return replayBuffer;
     }
 
     /**
@@ -85,23 +246,31 @@ public class WebSocketServer {
     public void close(Session session) {
         Integer idChat = (Integer) session.getUserProperties().get("idChat");
         Integer idUser = (Integer) session.getUserProperties().get("idUser");
+        if (idChat == null) {
+            // Refused while stopping, never opened
+            return;
+        }
 
         LOGGER.info("Session fermée pour [{}] dans le chat [{}]", idUser, idChat);
 
-        if (chatSessions.get(idChat) != null) {
-            chatSessions.get(idChat).remove(session);
-            if (chatSessions.get(idChat).isEmpty()) {
-                chatSessions.remove(idChat);
+        SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get("outbox");
+        if (outbox != null) {
+            outbox.close();
+        }
+        roomExecutors.execute(idChat, () -> {
+            if (chatSessions.remove(idChat, session)) {
+                presenceTracker.localLeft(idChat, idUser);
+            }
+            sendMessageToAll(newEnvelope(EnvelopeType.LEAVE, idChat, idUser, null));
+            if (!chatSessions.hasSessions(idChat)) {
                 return;
             }
-        }
-        sendMessageToAll(idChat, "User [" + idUser + "] has left the chat.");
-        sendConnectedUsers(idChat);
-        try {
-            session.close(); // Fermer la session WebSocket de l'utilisateur
-        } catch (IOException e) {
-            LOGGER.error("Erreur lors de la fermeture de la session WebSocket pour l'utilisateur [{}] : {}", idUser, e.getMessage());
-        }
+            try {
+                session.close(); // Fermer la session WebSocket de l'utilisateur
+            } catch (IOException e) {
+                LOGGER.error("Erreur lors de la fermeture de la session WebSocket pour l'utilisateur [{}] : {}", idUser, e.getMessage());
+            }
+        });
     }
 
     /**
@@ -125,103 +294,249 @@ public class WebSocketServer {
         Integer idUser = (Integer) session.getUserProperties().get("idUser");
 
         LOGGER.info("Message reçu de [{}] dans le chat [{}] : [{}]", idUser, idChat, message);
-        sendMessageToAll(idChat, "User [" + idUser + "]: " + message);
+        ChatEnvelopeCodec.ClientFrame frame = ChatEnvelopeCodec.parseClientFrame(message);
+        if ("presenceSync".equals(frame.type())) {
+            // The client noticed a gap in the presence versions
+            roomExecutors.execute(idChat, () -> sendMessage(session, presenceTracker.snapshotFrame(idChat)));
+            return;
+        }
+        roomExecutors.execute(idChat, () -> {
+            String body = frame.body();
+            if (body == null || body.isEmpty() || body.length() > Message.MAX_BODY_LENGTH) {
+                sendMessage(session, ChatEnvelopeCodec.encodeMessageRejected(idChat, body));
+                return;
+            }
+            ChatEnvelope envelope;
+            try {
+                envelope = newEnvelope(EnvelopeType.MESSAGE, idChat, idUser, chatSequences.next(idChat), body);
+            } catch (DataAccessException e) {
+                LOGGER.error("Impossible de numéroter un message du chat [{}] : {}", idChat, e.getMessage());
+                sendMessage(session, ChatEnvelopeCodec.encodeMessageRejected(idChat, body));
+                return;
+            }
+            // Stored before it is delivered, so no client sees a message missing from the history
+            if (!messageStore.append(new Message(idChat, idUser, envelope.getChatSequence(), new Date(envelope.getTimestamp()), body))) {
+                sendMessage(session, ChatEnvelopeCodec.encodeMessageRejected(idChat, body));
+                return;
+            }
+            sendMessageToAll(envelope);
+        });
+    }
+
+    /**
+     * Creates an envelope stamped with the next sequence number and the current time.
+     * @param type the type of the envelope
+     * @param idChat the chat ID
+     * @param idUser the sender ID
+     * @param body the body, may be null
+     * @return the envelope
+     */
+    private ChatEnvelope newEnvelope(EnvelopeType type, Integer idChat, Integer idUser, String body) {
+        return newEnvelope(type, idChat, idUser, 0, body);
+    }
+
+    /**
+     * Creates an envelope stamped with the next sequence number and the current time.
+     * @param type the type of the envelope
+     * @param idChat the chat ID
+     * @param idUser the sender ID
+     * @param chatSequence the number of the message in its chat, 0 if the envelope is not a message
+     * @param body the body, may be null
+     * @return the envelope
+     */
+    private ChatEnvelope newEnvelope(EnvelopeType type, Integer idChat, Integer idUser, long chatSequence, String body) {
+        return new ChatEnvelope(type, idChat, idUser, sequence.incrementAndGet(), chatSequence, System.currentTimeMillis(), body, broadcastBus.getNodeId());
+    }
+
+    /**
+     * Called on the shard of the chat when an envelope published by another node is received from the bus.
+     * @param envelope the envelope
+     */
+    private void onBusEnvelope(ChatEnvelope envelope) {
+        if (isDuplicate(envelope)) {
+            return;
+        }
+        if (envelope.getType() == EnvelopeType.PRESENCE) {
+            boolean newNode = presenceTracker.applyRemote(envelope.getChatId(), envelope.getOrigin(), envelope.getBody());
+            if (newNode && chatSessions.hasSessions(envelope.getChatId())) {
+                // Let the new node know who is connected here
+                broadcastBus.publish(newEnvelope(EnvelopeType.PRESENCE, envelope.getChatId(), 0,
+                        presenceTracker.localSnapshotBody(envelope.getChatId())));
+            }
+        } else if (envelope.getType() == EnvelopeType.CLOSE) {
+            closeLocalSessions(envelope.getChatId(), new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, envelope.getBody()));
+        } else {
+            deliverLocally(envelope);
+        }
+    }
+
+    /**
+     * Checks whether an envelope from another node was already received.
+     * @param envelope the envelope
+     * @return true if its sequence is not above the last one received from its node in its chat
+     */
+    private boolean isDuplicate(ChatEnvelope envelope) {
+        AtomicLong last = lastSequences
+                .computeIfAbsent(envelope.getChatId(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(envelope.getOrigin(), k -> new AtomicLong());
+        long previous;
+        do {
+            previous = last.get();
+            if (envelope.getSequence() <= previous) {
+                return true;
+            }
+        } while (!last.compareAndSet(previous, envelope.getSequence()));
+        return false;
     }
 
     /**
-     * Sends a message to a specific WebSocket session.
+     * Queues a message on the outbox of a specific WebSocket session.
+     * The message is delivered asynchronously, so a slow client does not delay the caller.
      * @param session the WebSocket session
      * @param message the message to send
      */
     private void sendMessage(Session session, String message) {
-        try {
-            session.getBasicRemote().sendText(message);
-            LOGGER.info("J'ai bien envoyer le message : {}", message);
-        } catch (IOException e) {
-            LOGGER.error("Erreur lors de l'envoi du message à la session [{}] : {}", session.getId(), e.getMessage());
+        SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get("outbox");
+        if (outbox == null || !outbox.offer(message)) {
+            LOGGER.warn("Message non délivré à la session [{}]", session.getId());
         }
     }
 
     /**
-     * Sends a message to all WebSocket clients in a specific chat.
-     * @param idChat the chat ID
-     * @param message the message to send
+     * Sends an envelope to all WebSocket clients in its chat, except its sender, on every node.
+     * @param envelope the envelope to send
      */
-    private void sendMessageToAll(Integer idChat, String message) {
-        // Extract the idUser from the message JSON string
-        Integer senderIdUser = extractIdUserFromMessage(message);
-        if (senderIdUser == null) {
-            LOGGER.error("Failed to extract idUser from message: {}", message);
-            return;
-        }
+    private void sendMessageToAll(ChatEnvelope envelope) {
+        deliverLocally(envelope);
+        broadcastBus.publish(envelope);
+    }
 
-        Set<Session> sessions = chatSessions.get(idChat);
-        if (sessions != null) {
-            for (Session s : sessions) {
-                Integer sessionIdUser = (Integer) s.getUserProperties().get("idUser");
-                // Check if the session's user ID is not equal to the sender's user ID
-                if (!senderIdUser.equals(sessionIdUser)) {
-                    LOGGER.info("Envoi du message [{}] à [{}]", message, sessionIdUser);
-                    sendMessage(s, message);
-                }
+    /**
+     * Queues an envelope for the local sessions of its chat, except its sender.
+     * The envelope is encoded once and the same frame is queued for every local recipient. A chat
+     * message is kept in the replay buffer of its chat first, under the number it already carries, unless
+     * the room is already closed here.
+     * @param envelope the envelope
+     */
+    private void deliverLocally(ChatEnvelope envelope) {
+        String frame = ChatEnvelopeCodec.encode(envelope);
+        if (envelope.getType() == EnvelopeType.MESSAGE && chatSessions.hasSessions(envelope.getChatId())) {
+            ReplayBuffer replayBuffer = replayBuffer(envelope.getChatId());
+            replayBuffer.observe(envelope.getChatSequence());
+            replayBuffer.add(envelope.getChatSequence(), envelope.getSenderId(), frame);
+        }
+        for (Session s : chatSessions.getSessions(envelope.getChatId())) {
+            if (!s.isOpen()) {
+                // Closed, its removal is queued behind this event
+                continue;
+            }
+            Integer sessionIdUser = (Integer) s.getUserProperties().get("idUser");
+            // Check if the session's user ID is not equal to the sender's user ID
+            if (!envelope.getSenderId().equals(sessionIdUser)) {
+                sendMessage(s, frame);
             }
         }
     }
 
     /**
-     * Sends the list of connected users to all WebSocket clients in a specific chat.
+     * Retrieves the users connected to a chat on every node.
      * @param idChat the chat ID
+     * @return the user IDs
      */
-    private void sendConnectedUsers(Integer idChat) {
-        Set<Session> sessions = chatSessions.get(idChat);
-        if (sessions != null) {
-            Set<Integer> connectedUsers = sessions.stream()
-                    .map(s -> (Integer) s.getUserProperties().get("idUser"))
-                    .collect(Collectors.toSet());
-            String message = "{\"type\": \"userStatusUpdate\", \"connectedUsers\": " + connectedUsers.toString() + "}";
-            for (Session s : sessions) {
-                sendMessage(s, message);
-            }
+    public Set<Integer> getConnectedUsers(Integer idChat) {
+        return presenceTracker.getConnectedUsers(idChat);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Closes the local sessions when the application shuts down, so their users leave the other nodes and
+     * reconnect to one of them. The sessions opened afterwards are refused.
+     * The other nodes are then told that this node has nobody left in each chat: the coalesced leaves
+     * would only be published after the room shards stop. The presence timer stops last.
+     */
+    @Override
+    public void stop() {
+        running = false;
+        CloseReason reason = new CloseReason(CloseReason.CloseCodes.GOING_AWAY, STOP_REASON);
+        for (Integer idChat : List.copyOf(chatSessions.getChatIds())) {
+            closeLocalSessions(idChat, reason);
+            // After the removal of the sessions, queued by their close, so no snapshot published later lists them
+            roomExecutors.execute(idChat, () -> broadcastBus.publish(newEnvelope(EnvelopeType.PRESENCE, idChat, 0, "=")));
         }
+        presenceTracker.shutdown();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
     }
 
     /**
-     * Extracts the user ID from a JSON message.
-     * @param message the JSON message
-     * @return the user ID, or null if extraction fails
+     * Evicts the local clients whose in-flight frame has not completed after {@code maxLagMillis}: otherwise
+     * a client that stopped reading is only noticed when the next frame is queued for it, in a quiet chat maybe
+     * never. Each evicted session goes through {@link #close(Session)}.
      */
-    private Integer extractIdUserFromMessage(String message) {
-        try {
-            // Simple JSON parsing without dependencies
-            int idUserIndex = message.indexOf("\"idUser\":");
-            if (idUserIndex == -1) {
-                return null;
+    @Scheduled(fixedDelayString = "${chat.websocket.outbound.lagCheckMillis:1000}")
+    public void evictLaggingSessions() {
+        for (Integer idChat : List.copyOf(chatSessions.getChatIds())) {
+            for (Session session : List.copyOf(chatSessions.getSessions(idChat))) {
+                SessionOutbox outbox = (SessionOutbox) session.getUserProperties().get("outbox");
+                if (outbox != null) {
+                    outbox.evictIfLagging();
+                }
             }
+        }
+    }
 
-            int startIndex = idUserIndex + 9;
-            int endIndex = message.indexOf(",", startIndex);
-            if (endIndex == -1) {
-                endIndex = message.indexOf("}", startIndex);
-            }
+    /**
+     * Closes the sessions of a chat on every node, when it expires or is deleted.
+     * Each closed session goes through {@link #close(Session)}, so the other members see it leave.
+     * @param idChat the chat ID
+     * @param reason the reason sent to the clients
+     * @return the number of sessions closed on this node
+     */
+    public int closeChat(Integer idChat, String reason) {
+        roomExecutors.execute(idChat, () -> broadcastBus.publish(newEnvelope(EnvelopeType.CLOSE, idChat, 0, reason)));
+        return closeLocalSessions(idChat, new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, reason));
+    }
 
-            if (endIndex == -1) {
-                return null;
+    /**
+     * Closes the sessions of a chat on this node.
+     * @param idChat the chat ID
+     * @param reason the close code and reason sent to the clients
+     * @return the number of sessions closed
+     */
+    private int closeLocalSessions(Integer idChat, CloseReason reason) {
+        int closed = 0;
+        for (Session session : List.copyOf(chatSessions.getSessions(idChat))) {
+            try {
+                session.close(reason);
+                closed++;
+            } catch (IOException e) {
+                LOGGER.error("Erreur lors de la fermeture de la session [{}] du chat [{}] : {}", session.getId(), idChat, e.getMessage());
             }
-
-            String idUserStr = message.substring(startIndex, endIndex).trim();
-            return Integer.parseInt(idUserStr);
-        } catch (Exception e) {
-            LOGGER.error("Error parsing idUser from message", e);
-            return null;
         }
+        if (closed > 0) {
+            LOGGER.info("{} sessions fermées dans le chat [{}] : {}", closed, idChat, reason.getReasonPhrase());
+        }
+        return closed;
     }
 
     /**
      * Retrieves the sessions for a specific chat ID.
      * @param idChat the chat ID
-     * @return the set of sessions
+     * @return the set of sessions, empty if nobody is connected
      */
     public Set<Session> getSessions(Integer idChat) {
-        return chatSessions.get(idChat);
+        return chatSessions.getSessions(idChat);
     }
 }
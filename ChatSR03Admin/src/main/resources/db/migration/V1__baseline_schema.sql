@@ -0,0 +1,32 @@
+-- Schema of the application before versioned migrations.
+-- Existing databases are baselined at this version, so this script only runs on an empty database.
+
+CREATE TABLE IF NOT EXISTS `User` (
+    id            INT          NOT NULL AUTO_INCREMENT,
+    isAdmin       BOOLEAN      NOT NULL DEFAULT FALSE,
+    familyName    VARCHAR(255),
+    firstName     VARCHAR(255),
+    email         VARCHAR(255),
+    password      VARCHAR(255),
+    isActivated   BOOLEAN      NOT NULL DEFAULT TRUE,
+    loginAttempts INT          NOT NULL DEFAULT 0,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS Chat (
+    id          INT          NOT NULL AUTO_INCREMENT,
+    `date`      DATETIME,
+    endDate     DATETIME,
+    title       VARCHAR(255),
+    description VARCHAR(255),
+    ownerId     INT,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS Invitation (
+    id_chat INT NOT NULL,
+    id_user INT NOT NULL,
+    PRIMARY KEY (id_chat, id_user),
+    CONSTRAINT fk_invitation_chat FOREIGN KEY (id_chat) REFERENCES Chat (id),
+    CONSTRAINT fk_invitation_user FOREIGN KEY (id_user) REFERENCES `User` (id)
+);
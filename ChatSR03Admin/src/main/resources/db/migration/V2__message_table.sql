@@ -0,0 +1,13 @@
+-- Chat messages written by the write-behind pipeline, read by the keyset history queries
+-- (WHERE id_chat = ? AND id < ? ORDER BY id DESC), hence the (id_chat, id) index.
+
+CREATE TABLE IF NOT EXISTS Message (
+    id         BIGINT        NOT NULL AUTO_INCREMENT,
+    id_chat    INT           NOT NULL,
+    id_user    INT           NOT NULL,
+    `sequence` BIGINT        NOT NULL,
+    sentAt     DATETIME(3),
+    body       VARCHAR(4000),
+    PRIMARY KEY (id),
+    INDEX idx_message_chat_id (id_chat, id)
+);
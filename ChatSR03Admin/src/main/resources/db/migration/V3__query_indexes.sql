@@ -0,0 +1,15 @@
+-- Indexes matching the filters of the repository queries.
+
+-- UserRepository.findByEmail / findByEmailAndPassword (login, registration, forgotten password)
+CREATE INDEX idx_user_email ON `User` (email);
+
+-- ChatRepository.findVisibleByUserId, owner branch: ownerId = ? AND id > ? ORDER BY id
+CREATE INDEX idx_chat_owner_id ON Chat (ownerId, id);
+
+-- Expiration filters and the cleanup of expired chats: endDate > ? / endDate <= ?
+CREATE INDEX idx_chat_end_date ON Chat (endDate);
+
+-- ChatRepository.findVisibleByUserId, invitation branch: EXISTS (... id_chat = c.id AND id_user = ?),
+-- InvitationRepository.existsByChatIdChatAndUserIdUser and the deletion of a user's invitations.
+-- The primary key (id_chat, id_user) already covers the lookups by chat.
+CREATE INDEX idx_invitation_user_chat ON Invitation (id_user, id_chat);
@@ -0,0 +1,10 @@
+-- Heartbeat written to the primary and read back from the read replica to measure its lag
+-- (see ReplicaLagMonitor). A single row, the time is in epoch milliseconds.
+
+CREATE TABLE IF NOT EXISTS ReplicaHeartbeat (
+    id   INT    NOT NULL,
+    beat BIGINT NOT NULL,
+    PRIMARY KEY (id)
+);
+
+INSERT INTO ReplicaHeartbeat (id, beat) VALUES (1, 0);
@@ -0,0 +1,8 @@
+-- Last sequence number given to a message of each chat (see ChatSequences). Every node numbers the
+-- messages of a chat from this row, so the numbers stay unique and increasing across nodes.
+
+CREATE TABLE IF NOT EXISTS ChatSequence (
+    id_chat       INT    NOT NULL,
+    last_sequence BIGINT NOT NULL,
+    PRIMARY KEY (id_chat)
+);
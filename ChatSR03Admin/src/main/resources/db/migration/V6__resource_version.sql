@@ -0,0 +1,9 @@
+-- Change counters of the REST resources, from which their ETags are built (see ResourceVersions).
+-- One row per resource key, shared by every node; changedAt is in epoch milliseconds.
+
+CREATE TABLE IF NOT EXISTS ResourceVersion (
+    resource_key VARCHAR(64) NOT NULL,
+    version      BIGINT      NOT NULL,
+    changedAt    BIGINT      NOT NULL,
+    PRIMARY KEY (resource_key)
+);
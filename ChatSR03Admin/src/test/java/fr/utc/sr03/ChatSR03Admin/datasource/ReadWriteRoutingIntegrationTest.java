@@ -0,0 +1,159 @@
+package fr.utc.sr03.ChatSR03Admin.datasource;
+
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.repository.ChatRepository;
+import fr.utc.sr03.ChatSR03Admin.service.ChatMembershipCache;
+import jakarta.persistence.EntityManagerFactory;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routing between a primary and a read replica, played by two in-memory H2 databases.
+ * <p>
+ * The replica is migrated here, since Flyway only migrates the primary, and nothing copies the rows from one to
+ * the other: the same chat is inserted in both with a different owner, which tells where each read went. The
+ * scheduled lag check is pushed out of the test, which runs {@link ReplicaLagMonitor#check()} itself after
+ * setting the heartbeat of the replica.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=" + ReadWriteRoutingIntegrationTest.PRIMARY_URL,
+        "chat.datasource.replica.jdbc-url=" + ReadWriteRoutingIntegrationTest.REPLICA_URL,
+        "chat.datasource.replica.username=sa",
+        "chat.datasource.replica.maxLagMillis=5000",
+        "chat.datasource.replica.checkMillis=3600000"})
+@ActiveProfiles("test")
+class ReadWriteRoutingIntegrationTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:primary;MODE=MySQL;NON_KEYWORDS=USER,VALUE;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;MODE=MySQL;NON_KEYWORDS=USER,VALUE;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1";
+
+    private static final int CHAT_ID = 424_242;
+    private static final int PRIMARY_OWNER = 1;
+    private static final int REPLICA_OWNER = 2;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private ReplicaLagMonitor replicaLagMonitor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ChatMembershipCache membershipCache;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final JdbcTemplate primary = new JdbcTemplate(dataSource(PRIMARY_URL));
+    private final JdbcTemplate replica = new JdbcTemplate(dataSource(REPLICA_URL));
+
+    @BeforeEach
+    void replicateChat() {
+        Flyway.configure().dataSource(dataSource(REPLICA_URL)).load().migrate();
+        for (JdbcTemplate database : new JdbcTemplate[]{primary, replica}) {
+            database.update("DELETE FROM Chat WHERE id = ?", CHAT_ID);
+        }
+        primary.update("INSERT INTO Chat (id, title, ownerId) VALUES (?, 'Chat', ?)", CHAT_ID, PRIMARY_OWNER);
+        replica.update("INSERT INTO Chat (id, title, ownerId) VALUES (?, 'Chat', ?)", CHAT_ID, REPLICA_OWNER);
+    }
+
+    @Test
+    void readOnlyTransactionsGoToAnUpToDateReplica() {
+        setReplicaHeartbeat(System.currentTimeMillis());
+        replicaLagMonitor.check();
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+        assertTrue(replicaLagMonitor.getLagMillis() < 5000);
+
+        assertEquals(REPLICA_OWNER, readOwner(true));
+        assertEquals(PRIMARY_OWNER, readOwner(false));
+        assertEquals(PRIMARY_OWNER, ReadWriteRoutingDataSource.readOnPrimary(() -> readOwner(true)));
+    }
+
+    @Test
+    void writesGoToThePrimary() {
+        setReplicaHeartbeat(System.currentTimeMillis());
+        replicaLagMonitor.check();
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                chatRepository.findById(CHAT_ID).ifPresent(chat -> chat.setTitle("Renamed")));
+
+        assertEquals("Renamed", primary.queryForObject("SELECT title FROM Chat WHERE id = ?", String.class, CHAT_ID));
+        assertEquals("Chat", replica.queryForObject("SELECT title FROM Chat WHERE id = ?", String.class, CHAT_ID));
+    }
+
+    @Test
+    void membershipIsLoadedFromThePrimary() {
+        setReplicaHeartbeat(System.currentTimeMillis());
+        replicaLagMonitor.check();
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+
+        membershipCache.invalidate(CHAT_ID);
+        assertEquals(PRIMARY_OWNER, membershipCache.get(CHAT_ID).ownerId());
+    }
+
+    @Test
+    void entitiesReadOnTheReplicaAreNotCached() {
+        setReplicaHeartbeat(System.currentTimeMillis());
+        replicaLagMonitor.check();
+        assertTrue(replicaLagMonitor.isReplicaUsable());
+        entityManagerFactory.getCache().evict(Chat.class, CHAT_ID);
+
+        assertEquals(REPLICA_OWNER, readChatOwner());
+        // Not served from the cache filled by the replica read
+        assertEquals(PRIMARY_OWNER, ReadWriteRoutingDataSource.readOnPrimary(this::readChatOwner));
+        // The primary read filled it
+        assertEquals(PRIMARY_OWNER, readChatOwner());
+    }
+
+    @Test
+    void readsFallBackToThePrimaryWhenTheReplicaLags() {
+        setReplicaHeartbeat(System.currentTimeMillis() - 60_000);
+        replicaLagMonitor.check();
+        assertFalse(replicaLagMonitor.isReplicaUsable());
+        assertTrue(replicaLagMonitor.getLagMillis() >= 60_000);
+        assertEquals(PRIMARY_OWNER, readOwner(true));
+
+        // Caught up again
+        setReplicaHeartbeat(System.currentTimeMillis());
+        replicaLagMonitor.check();
+        assertEquals(REPLICA_OWNER, readOwner(true));
+    }
+
+    private Integer readChatOwner() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        return transaction.execute(status -> chatRepository.findById(CHAT_ID).orElseThrow().getOwnerId());
+    }
+
+    private Integer readOwner(boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status -> chatRepository.findOwnerIdByChatId(CHAT_ID));
+    }
+
+    /**
+     * Plays the replication of the heartbeat written by the monitor on the primary.
+     */
+    private void setReplicaHeartbeat(long beat) {
+        replica.update("UPDATE ReplicaHeartbeat SET beat = ? WHERE id = 1", beat);
+    }
+
+    private static DataSource dataSource(String url) {
+        return new DriverManagerDataSource(url, "sa", "");
+    }
+}
@@ -0,0 +1,180 @@
+package fr.utc.sr03.ChatSR03Admin.monitoring;
+
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.entity.User;
+import fr.utc.sr03.ChatSR03Admin.repository.ChatRepository;
+import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import fr.utc.sr03.ChatSR03Admin.service.ChatMembershipCache;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Number of SQL statements run by the endpoints reading the chats, the participants and the invitations.
+ * <p>
+ * Each request is sent with cold caches and counted by {@link SqlStatementCounter}: MockMvc runs the request,
+ * and so the counter, on the test thread. The application still starts on a random port, since the WebSocket
+ * endpoints need a servlet container. The count must stay within the budget of the endpoint and must not grow
+ * with the number of guests: raise a budget only for a deliberate new statement, never for an N+1.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class SqlStatementBudgetTest {
+
+    /** Owner and guests loaded by the membership cache, then the public columns of the users. */
+    private static final int PARTICIPANTS_BUDGET = 3;
+    /** The UNION of the owned and the invited chats. */
+    private static final int CHAT_LIST_BUDGET = 1;
+    /** The insert-if-absent, then the user and the chat of the response, not cached. */
+    private static final int INVITE_BUDGET = 3;
+    /**
+     * Existence of the chat, lock of its row, existence of the invited users and of their invitations, then the
+     * bulk delete; the inserts are a JDBC batch, not counted.
+     */
+    private static final int INVITATION_BATCH_BUDGET = 5;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ChatMembershipCache chatMembershipCache;
+
+    private String token;
+
+    @BeforeEach
+    void login() {
+        token = jwtTokenProvider.createSimpleToken(1, "budget@test.fr", false);
+    }
+
+    @Test
+    void participantsOfAChat() throws Exception {
+        for (int guests : new int[]{1, 10}) {
+            Chat chat = newChat(newUser(), guests);
+            int count = count(get("/api/chat/users/{chatId}", chat.getIdChat()), chat);
+            assertTrue(count <= PARTICIPANTS_BUDGET, "participants with " + guests + " guests: " + count + " statements");
+        }
+        assertEquals(count(get("/api/chat/users/{chatId}", newChat(newUser(), 1).getIdChat()), null),
+                count(get("/api/chat/users/{chatId}", newChat(newUser(), 20).getIdChat()), null),
+                "participants depend on the number of guests");
+    }
+
+    @Test
+    void chatsOfAUser() throws Exception {
+        User user = newUser();
+        List<Integer> counts = new ArrayList<>();
+        for (int chats = 0; chats < 12; chats++) {
+            Chat owned = newChat(user, 3);
+            invite(newChat(newUser(), 3), user);
+            if (chats == 0 || chats == 11) {
+                int count = count(get("/api/chat/all/{idUser}", user.getIdUser()).param("size", "50"), owned);
+                assertTrue(count <= CHAT_LIST_BUDGET, "chat list of " + (2 * chats + 2) + " chats: " + count + " statements");
+                counts.add(count);
+            }
+        }
+        assertEquals(counts.get(0), counts.get(1), "chat list depends on the number of chats");
+    }
+
+    @Test
+    void invitations() throws Exception {
+        Chat chat = newChat(newUser(), 5);
+        User guest = newUser();
+        int count = count(put("/api/chat/invite/{userId}/{chatId}", guest.getIdUser(), chat.getIdChat()), chat);
+        assertTrue(count <= INVITE_BUDGET, "invite: " + count + " statements");
+        int again = count(put("/api/chat/invite/{userId}/{chatId}", guest.getIdUser(), chat.getIdChat()), chat);
+        assertTrue(again <= INVITE_BUDGET, "invite again: " + again + " statements");
+
+        for (int invited : new int[]{1, 10}) {
+            String ids = newUsers(invited).stream().map(u -> String.valueOf(u.getIdUser())).collect(Collectors.joining(","));
+            int batchCount = count(post("/api/chat/{chatId}/invitations", chat.getIdChat())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"invite\":[" + ids + "],\"uninvite\":[" + guest.getIdUser() + "]}"), chat);
+            assertTrue(batchCount <= INVITATION_BATCH_BUDGET, "batch of " + invited + " invitations: " + batchCount + " statements");
+        }
+    }
+
+    /**
+     * Sends a request with cold caches and returns the number of statements it prepared.
+     */
+    private int count(MockHttpServletRequestBuilder request, Chat chat) throws Exception {
+        entityManagerFactory.getCache().evictAll();
+        if (chat != null) {
+            chatMembershipCache.invalidate(chat.getIdChat());
+        }
+        mockMvc.perform(request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token)).andExpect(status().isOk());
+        return SqlStatementCounter.get();
+    }
+
+    private User newUser() {
+        User user = new User();
+        user.setFirstName("Prénom");
+        user.setLastName("Nom");
+        user.setEmail(UUID.randomUUID() + "@test.fr");
+        user.setPassword("secret");
+        user.setActivated(true);
+        return userRepository.save(user);
+    }
+
+    private List<User> newUsers(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(newUser());
+        }
+        return users;
+    }
+
+    private Chat newChat(User owner, int guests) {
+        Chat chat = new Chat();
+        chat.setTitle("Chat");
+        chat.setDescription("Budget");
+        chat.setOwnerId(owner.getIdUser());
+        chat.setDateCreation(new Date());
+        chat.setDateExpiration(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+        chat = chatRepository.save(chat);
+        for (User guest : newUsers(guests)) {
+            invite(chat, guest);
+        }
+        return chat;
+    }
+
+    private void invite(Chat chat, User user) {
+        jdbcTemplate.update("INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)", chat.getIdChat(), user.getIdUser());
+    }
+}
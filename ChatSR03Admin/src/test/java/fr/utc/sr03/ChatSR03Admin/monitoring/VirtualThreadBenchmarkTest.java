@@ -0,0 +1,175 @@
+package fr.utc.sr03.ChatSR03Admin.monitoring;
+
+import fr.utc.sr03.ChatSR03Admin.ChatSr03AdminApplication;
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Throughput and latency of the requests served by virtual threads, compared with the platform thread pool of
+ * Tomcat ({@code server.tomcat.threads.max}, 200 by default).
+ * <p>
+ * The application is started twice, with and without {@code spring.threads.virtual.enabled}. Every statement
+ * waits {@link #DATABASE_LATENCY_MILLIS} before reaching the in-memory database, as if it went over the network
+ * to MySQL, and the connection pool is larger than the Tomcat pool: the threads are then the limit, not the
+ * connections. {@link #CONCURRENCY} clients read the participants of a chat.
+ * <p>
+ * Excluded from the default build, run it with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class VirtualThreadBenchmarkTest {
+
+    private static final long DATABASE_LATENCY_MILLIS = 20;
+    private static final int CONNECTIONS = 400;
+    private static final int CONCURRENCY = 1000;
+    private static final int REQUESTS_PER_CLIENT = 10;
+
+    @Test
+    void virtualThreadsAgainstThePlatformPool() throws Exception {
+        String platform = run(false);
+        String virtual = run(true);
+        System.out.printf("%d clients, %d ms par requête SQL :%n  threads plateforme : %s%n  threads virtuels   : %s%n",
+                CONCURRENCY, DATABASE_LATENCY_MILLIS, platform, virtual);
+    }
+
+    /**
+     * Starts the application, warms it up, then measures the participants endpoint at full concurrency.
+     */
+    private static String run(boolean virtualThreads) throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ChatSr03AdminApplication.class)
+                .profiles("test")
+                .properties("server.port=0",
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "spring.datasource.hikari.maximum-pool-size=" + CONNECTIONS,
+                        "chat.sql.statementBudget=0")
+                .initializers(c -> c.getBeanFactory().addBeanPostProcessor(new DatabaseLatency()))
+                .run()) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password) VALUES ('Prénom', 'Nom', ?, 'secret')",
+                    "bench-" + virtualThreads + "@test.fr");
+            Integer idUser = jdbcTemplate.queryForObject("SELECT id FROM `User` WHERE email = ?", Integer.class, "bench-" + virtualThreads + "@test.fr");
+            jdbcTemplate.update("INSERT INTO Chat (title, ownerId, endDate) VALUES ('Bench', ?, '2099-01-01')", idUser);
+            Integer idChat = jdbcTemplate.queryForObject("SELECT MAX(id) FROM Chat WHERE ownerId = ?", Integer.class, idUser);
+            String token = context.getBean(JwtTokenProvider.class).createSimpleToken(idUser, "bench@test.fr", false);
+
+            HttpClient httpClient = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/chat/users/" + idChat))
+                    .header("Authorization", "Bearer " + token)
+                    .build();
+            load(httpClient, request, CONCURRENCY / 4, 5);
+            long start = System.nanoTime();
+            long[] latencies = load(httpClient, request, CONCURRENCY, REQUESTS_PER_CLIENT);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Arrays.sort(latencies);
+            return String.format("%.0f requêtes/s, latence p50 %d ms, p99 %d ms, max %d ms",
+                    latencies.length / seconds, percentile(latencies, 50), percentile(latencies, 99), latencies[latencies.length - 1]);
+        }
+    }
+
+    /**
+     * Sends the request from concurrent clients and returns the latency of each response, in milliseconds.
+     */
+    private static long[] load(HttpClient httpClient, HttpRequest request, int clients, int requestsPerClient) throws Exception {
+        List<Future<long[]>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                results.add(executor.submit(() -> {
+                    long[] latencies = new long[requestsPerClient];
+                    for (int r = 0; r < requestsPerClient; r++) {
+                        long sent = System.nanoTime();
+                        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                        latencies[r] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+                        assertEquals(200, response.statusCode());
+                    }
+                    return latencies;
+                }));
+            }
+            long[] all = new long[clients * requestsPerClient];
+            for (int i = 0; i < clients; i++) {
+                System.arraycopy(results.get(i).get(5, TimeUnit.MINUTES), 0, all, i * requestsPerClient, requestsPerClient);
+            }
+            return all;
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    /**
+     * Delays every statement run through the application data source.
+     */
+    private static final class DatabaseLatency implements BeanPostProcessor {
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource && "dataSource".equals(beanName)) {
+                return proxy(DataSource.class, bean, (method, result) -> result instanceof Connection ? slowConnection(result) : result);
+            }
+            return bean;
+        }
+
+        private static Object slowConnection(Object connection) {
+            return proxy(Connection.class, connection, (method, result) ->
+                    result instanceof Statement && method.getName().matches("prepareStatement|createStatement|prepareCall")
+                            ? proxy(method.getReturnType(), result, (m, r) -> r)
+                            : result);
+        }
+
+        /**
+         * Wraps the result of a call.
+         */
+        private interface ResultWrapper {
+            Object wrap(Method method, Object result);
+        }
+
+        /**
+         * Proxies an object, delaying its {@code execute*} methods and wrapping the results of the others.
+         */
+        private static Object proxy(Class<?> type, Object target, ResultWrapper wrapper) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                if (method.getName().startsWith("execute")) {
+                    Thread.sleep(DATABASE_LATENCY_MILLIS);
+                }
+                return wrapper.wrap(method, invoke(target, method, args));
+            };
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package fr.utc.sr03.ChatSR03Admin.monitoring;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import fr.utc.sr03.ChatSR03Admin.service.UserSearchIndex;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pinning of virtual threads by the application code, with {@code spring.threads.virtual.enabled} set.
+ * <p>
+ * Concurrent clients go through the hot paths over HTTP and WebSocket, so Tomcat runs them on virtual threads,
+ * while the index rebuild runs on virtual threads of the test. Every {@code jdk.VirtualThreadPinned} event is
+ * recorded, whatever its duration; the test fails if the stack of one of them goes through the application.
+ * Pinnings in libraries only are reported.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "spring.threads.virtual.enabled=true")
+@ActiveProfiles("test")
+class VirtualThreadPinningTest {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String APPLICATION_PACKAGE = "fr.utc.sr03.";
+
+    private static final int CLIENTS = 32;
+    private static final int ROUNDS = 5;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+
+    @Test
+    void hotPathsDoNotPinVirtualThreads() throws Exception {
+        List<String> applicationPins = new CopyOnWriteArrayList<>();
+        AtomicInteger libraryPins = new AtomicInteger();
+        AtomicInteger canaryPins = new AtomicInteger();
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            recording.onEvent(PINNED_EVENT, event -> {
+                String stack = applicationStack(event);
+                if (isCanary(event)) {
+                    canaryPins.incrementAndGet();
+                } else if (stack != null) {
+                    applicationPins.add(stack);
+                } else {
+                    libraryPins.incrementAndGet();
+                }
+            });
+            recording.startAsync();
+            pinCanary();
+
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<?>> results = new ArrayList<>();
+                for (int i = 0; i < CLIENTS; i++) {
+                    results.add(clients.submit(() -> {
+                        client();
+                        return null;
+                    }));
+                }
+                results.add(clients.submit(() -> {
+                    for (int i = 0; i < ROUNDS; i++) {
+                        userSearchIndex.rebuild();
+                    }
+                    return null;
+                }));
+                for (Future<?> result : results) {
+                    result.get(2, TimeUnit.MINUTES);
+                }
+            }
+            recording.stop();
+        }
+
+        System.out.printf("Épinglages de threads virtuels dans les bibliothèques seules : %d%n", libraryPins.get());
+        assertEquals(1, canaryPins.get(), "pinning events not recorded");
+        assertEquals(List.of(), applicationPins);
+    }
+
+    /**
+     * Pins a virtual thread once on purpose, which the recording must report.
+     */
+    private static void pinCanary() throws InterruptedException {
+        Object monitor = new Object();
+        Thread.ofVirtual().start(() -> {
+            synchronized (monitor) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).join();
+    }
+
+    private static boolean isCanary(RecordedEvent event) {
+        return event.getStackTrace() != null && event.getStackTrace().getFrames().stream()
+                .anyMatch(frame -> frame.getMethod().getName().startsWith("lambda$pinCanary"));
+    }
+
+    /**
+     * Plays a user: registration, logins, a chat with guests, its reads and a WebSocket conversation.
+     */
+    private void client() throws Exception {
+        String email = UUID.randomUUID() + "@test.fr";
+        JsonNode user = send("POST", "/api/user/inscription", null,
+                "{\"firstName\":\"Prénom\",\"lastName\":\"Nom\",\"email\":\"" + email + "\",\"password\":\"secret\"}");
+        int idUser = user.get("idUser").asInt();
+        String token = jwtTokenProvider.createSimpleToken(idUser, email, false);
+        send("POST", "/api/user/login", null, "{\"email\":\"" + email + "\",\"password\":\"wrong\"}");
+        send("POST", "/api/user/login", null, "{\"email\":\"" + email + "\",\"password\":\"secret\"}");
+
+        JsonNode chat = send("POST", "/api/chat/create", token,
+                "{\"title\":\"Chat\",\"description\":\"Pinning\",\"ownerId\":" + idUser + ",\"dateExpiration\":\"2099-01-01T00:00:00.000+00:00\"}");
+        int idChat = chat.get("idChat").asInt();
+        send("POST", "/api/chat/" + idChat + "/invitations", token, "{\"invite\":[" + idUser + "]}");
+
+        WebSocket webSocket = httpClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/WebSocketServer/" + idChat + "/" + idUser), new WebSocket.Listener() {
+                })
+                .get(30, TimeUnit.SECONDS);
+        for (int i = 0; i < ROUNDS; i++) {
+            webSocket.sendText("{\"type\":\"message\",\"body\":\"Message " + i + "\"}", true).get(30, TimeUnit.SECONDS);
+            send("GET", "/api/chat/all/" + idUser, token, null);
+            send("GET", "/api/chat/users/" + idChat, token, null);
+            send("GET", "/api/chat/" + idChat, token, null);
+            send("GET", "/api/chat/" + idChat + "/messages", token, null);
+            send("GET", "/api/user/id/" + idUser, token, null);
+        }
+        // The listing keeps every field of the user, the export leaves the credentials out
+        JsonNode listed = send("GET", "/api/user/userList", token, null).get(0);
+        assertTrue(listed.has("password") && listed.has("loginAttempts") && listed.has("idUser"));
+        JsonNode exported = send("GET", "/api/user/export", token, null).get(0);
+        assertTrue(exported.has("idUser") && !exported.has("password"));
+        webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").get(30, TimeUnit.SECONDS);
+    }
+
+    private JsonNode send(String method, String path, String token, String json) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json");
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        HttpResponse<String> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        assertTrue(response.statusCode() < 500, method + " " + path + " : " + response.statusCode());
+        return response.body().isEmpty() ? null : objectMapper.readTree(response.body());
+    }
+
+    /**
+     * Retrieves the stack of a pinning event if it goes through the application, outside this test.
+     */
+    private static String applicationStack(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return null;
+        }
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+        boolean application = frames.stream()
+                .map(frame -> frame.getMethod().getType().getName())
+                .anyMatch(type -> type.startsWith(APPLICATION_PACKAGE) && !type.startsWith(VirtualThreadPinningTest.class.getName()));
+        if (!application) {
+            return null;
+        }
+        return frames.stream()
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber())
+                .collect(Collectors.joining("\n\tat ", event.getDuration().toNanos() + " ns\n\tat ", ""));
+    }
+}
@@ -0,0 +1,204 @@
+package fr.utc.sr03.ChatSR03Admin.reactive;
+
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Endpoints of the reactive read API, served by Reactor Netty over R2DBC on the in-memory database of the tests.
+ * <p>
+ * The R2DBC URL points to the same H2 database as the JDBC data source, so the rows inserted through
+ * {@link JdbcTemplate} are read by the reactive side.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "chat.reactive.enabled=true",
+        "chat.reactive.r2dbc.url=" + ReactiveChatReadApiTest.R2DBC_URL,
+        "chat.reactive.r2dbc.username=sa"})
+@ActiveProfiles("test")
+class ReactiveChatReadApiTest {
+
+    static final String R2DBC_URL = "r2dbc:h2:mem:///chat?options=MODE=MySQL;NON_KEYWORDS=USER,VALUE;DATABASE_TO_UPPER=false;DB_CLOSE_DELAY=-1";
+
+    private static final int REACTIVE_PORT = freePort();
+
+    @DynamicPropertySource
+    static void reactivePort(DynamicPropertyRegistry registry) {
+        registry.add("chat.reactive.port", () -> REACTIVE_PORT);
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    private final WebTestClient client = WebTestClient.bindToServer().baseUrl("http://localhost:" + REACTIVE_PORT).build();
+
+    private int owner;
+    private int guest;
+    private String token;
+
+    @BeforeEach
+    void users() {
+        owner = newUser("Owner");
+        guest = newUser("Guest");
+        token = "Bearer " + jwtTokenProvider.createSimpleToken(owner, "owner@test.fr", false);
+    }
+
+    @Test
+    void chatsOfAUserArePagedByCursor() {
+        int first = newChat("Premier", owner);
+        int second = newChat("Deuxième", guest);
+        invite(second, owner);
+        int third = newChat("Troisième", owner);
+        newChat("Expiré", owner, "2000-01-01");
+
+        client.get().uri("/api/chat/all/{idUser}?size=2", owner).header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(2)
+                .jsonPath("$.content[0].idChat").isEqualTo(first)
+                .jsonPath("$.content[1].idChat").isEqualTo(second)
+                .jsonPath("$.last").isEqualTo(false)
+                .jsonPath("$.nextCursor").isEqualTo(second);
+
+        client.get().uri("/api/chat/all/{idUser}?size=2&after={after}", owner, second).header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(1)
+                .jsonPath("$.content[0].idChat").isEqualTo(third)
+                .jsonPath("$.content[0].title").isEqualTo("Troisième")
+                .jsonPath("$.last").isEqualTo(true)
+                .jsonPath("$.nextCursor").doesNotExist();
+    }
+
+    @Test
+    void participantsListTheGuestsThenTheOwner() {
+        int chat = newChat("Participants", owner);
+        invite(chat, guest);
+
+        client.get().uri("/api/chat/users/{chatId}", chat).header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].idUser").isEqualTo(guest)
+                .jsonPath("$[0].firstName").isEqualTo("Guest")
+                .jsonPath("$[0].password").doesNotExist()
+                .jsonPath("$[1].idUser").isEqualTo(owner);
+    }
+
+    @Test
+    void chatById() {
+        int chat = newChat("Par ID", owner);
+
+        client.get().uri("/api/chat/{chatId}", chat).header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.idChat").isEqualTo(chat)
+                .jsonPath("$.title").isEqualTo("Par ID")
+                .jsonPath("$.ownerId").isEqualTo(owner);
+
+        client.get().uri("/api/chat/{chatId}", Integer.MAX_VALUE).header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isNotFound();
+        client.get().uri("/api/chat/{chatId}", "abc").header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void unchangedResourcesAnswerNotModified() {
+        int chat = newChat("ETag", owner);
+        String etag = client.get().uri("/api/chat/users/{chatId}", chat).header(HttpHeaders.AUTHORIZATION, token)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class)
+                .getResponseHeaders().getETag();
+        assertNotNull(etag);
+
+        client.get().uri("/api/chat/users/{chatId}", chat).header(HttpHeaders.AUTHORIZATION, token)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void requestsWithoutAValidTokenAreRejected() {
+        int chat = newChat("Privé", owner);
+        client.get().uri("/api/chat/{chatId}", chat)
+                .exchange()
+                .expectStatus().isUnauthorized();
+        client.get().uri("/api/chat/{chatId}", chat).header(HttpHeaders.AUTHORIZATION, "Bearer invalid")
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    void corsPreflightIsAnsweredWithoutToken() {
+        client.options().uri("/api/chat/users/{chatId}", 1)
+                .header(HttpHeaders.ORIGIN, "http://localhost:3000")
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, HttpMethod.GET.name())
+                .header(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, HttpHeaders.AUTHORIZATION)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
+                .expectHeader().exists(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS);
+
+        client.get().uri("/api/chat/{chatId}", newChat("CORS", owner)).header(HttpHeaders.AUTHORIZATION, token)
+                .header(HttpHeaders.ORIGIN, "http://localhost:3000")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "*")
+                .expectHeader().valueEquals(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, HttpHeaders.ETAG);
+    }
+
+    private int newUser(String firstName) {
+        String email = UUID.randomUUID() + "@test.fr";
+        jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password, isActivated) VALUES (?, 'Nom', ?, 'secret', TRUE)",
+                firstName, email);
+        return jdbcTemplate.queryForObject("SELECT id FROM `User` WHERE email = ?", Integer.class, email);
+    }
+
+    private int newChat(String title, int ownerId) {
+        return newChat(title, ownerId, "2099-01-01");
+    }
+
+    private int newChat(String title, int ownerId, String endDate) {
+        jdbcTemplate.update("INSERT INTO Chat (title, ownerId, `date`, endDate) VALUES (?, ?, CURRENT_TIMESTAMP, ?)", title, ownerId, endDate);
+        return jdbcTemplate.queryForObject("SELECT MAX(id) FROM Chat WHERE ownerId = ?", Integer.class, ownerId);
+    }
+
+    private void invite(int chat, int user) {
+        jdbcTemplate.update("INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)", chat, user);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
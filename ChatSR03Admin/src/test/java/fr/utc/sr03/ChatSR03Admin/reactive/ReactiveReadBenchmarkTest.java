@@ -0,0 +1,151 @@
+package fr.utc.sr03.ChatSR03Admin.reactive;
+
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Comparison of the MVC and the reactive participants endpoints under {@link #CONCURRENCY} concurrent requests,
+ * both served by the same application on the in-memory database.
+ * <p>
+ * Every request is sent at once, so each one opens its own connection. The report gives the throughput, the
+ * latencies, the highest number of requests in flight on the client, the peak of live JVM threads and the heap
+ * used after the run. The MVC side needs a Tomcat thread per request in progress, the reactive side a few event
+ * loop threads.
+ * Each connection takes two file descriptors in this JVM: lower the concurrency with
+ * {@code -Dchat.benchmark.concurrency} where {@code ulimit -n} is too small.
+ * <p>
+ * Excluded from the default build, run it with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "chat.reactive.enabled=true",
+        "chat.reactive.r2dbc.url=" + ReactiveChatReadApiTest.R2DBC_URL,
+        "chat.reactive.r2dbc.username=sa",
+        "chat.reactive.r2dbc.maxPoolSize=20",
+        "spring.datasource.hikari.maximum-pool-size=20",
+        "server.tomcat.max-connections=20000",
+        "server.tomcat.accept-count=20000",
+        "chat.sql.statementBudget=0"})
+@ActiveProfiles("test")
+class ReactiveReadBenchmarkTest {
+
+    private static final int CONCURRENCY = Integer.getInteger("chat.benchmark.concurrency", 10_000);
+
+    private static final int REACTIVE_PORT = freePort();
+
+    @DynamicPropertySource
+    static void reactivePort(DynamicPropertyRegistry registry) {
+        registry.add("chat.reactive.port", () -> REACTIVE_PORT);
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    @Test
+    void mvcAgainstReactiveParticipants() throws Exception {
+        int owner = newUser();
+        jdbcTemplate.update("INSERT INTO Chat (title, ownerId, `date`, endDate) VALUES ('Bench', ?, CURRENT_TIMESTAMP, '2099-01-01')", owner);
+        int chat = jdbcTemplate.queryForObject("SELECT MAX(id) FROM Chat WHERE ownerId = ?", Integer.class, owner);
+        for (int i = 0; i < 10; i++) {
+            jdbcTemplate.update("INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)", chat, newUser());
+        }
+        String token = "Bearer " + jwtTokenProvider.createSimpleToken(owner, "bench@test.fr", false);
+
+        URI mvc = URI.create("http://localhost:" + port + "/api/chat/users/" + chat);
+        URI reactive = URI.create("http://localhost:" + REACTIVE_PORT + "/api/chat/users/" + chat);
+        run(mvc, token, CONCURRENCY / 10);
+        run(reactive, token, CONCURRENCY / 10);
+        String mvcReport = run(mvc, token, CONCURRENCY);
+        String reactiveReport = run(reactive, token, CONCURRENCY);
+        System.out.printf("%d requêtes simultanées sur les participants d'un chat :%n  MVC (Tomcat)            : %s%n  réactif (Reactor Netty) : %s%n",
+                CONCURRENCY, mvcReport, reactiveReport);
+    }
+
+    /**
+     * Sends the requests all at once, each over a new connection, and reports on the run.
+     */
+    private static String run(URI uri, String token, int requests) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        threads.resetPeakThreadCount();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        HttpRequest request = HttpRequest.newBuilder(uri).header("Authorization", token).build();
+        List<CompletableFuture<Long>> responses = new ArrayList<>(requests);
+        long start = System.nanoTime();
+        try (HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(Executors.newVirtualThreadPerTaskExecutor()).build()) {
+            for (int i = 0; i < requests; i++) {
+                long sent = System.nanoTime();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+                    inFlight.decrementAndGet();
+                    assertEquals(200, response.statusCode());
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sent);
+                }));
+            }
+            long[] latencies = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                latencies[i] = responses.get(i).get(5, TimeUnit.MINUTES);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+            Arrays.sort(latencies);
+            return String.format("%.0f requêtes/s, latence p50 %d ms, p99 %d ms, max %d ms, %d en vol au plus, pic de %d threads, tas +%d Mo",
+                    requests / seconds, latencies[latencies.length / 2], latencies[Math.min(latencies.length - 1, latencies.length * 99 / 100)],
+                    latencies[latencies.length - 1], maxInFlight.get(), threads.getPeakThreadCount(), (heapAfter - heapBefore) >> 20);
+        }
+    }
+
+    private int newUser() {
+        String email = UUID.randomUUID() + "@test.fr";
+        jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password, isActivated) VALUES ('Prénom', 'Nom', ?, 'secret', TRUE)", email);
+        return jdbcTemplate.queryForObject("SELECT id FROM `User` WHERE email = ?", Integer.class, email);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
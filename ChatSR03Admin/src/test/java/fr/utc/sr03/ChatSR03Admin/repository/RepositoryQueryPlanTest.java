@@ -0,0 +1,188 @@
+package fr.utc.sr03.ChatSR03Admin.repository;
+
+import fr.utc.sr03.ChatSR03Admin.entity.Chat;
+import fr.utc.sr03.ChatSR03Admin.entity.User;
+import fr.utc.sr03.ChatSR03Admin.monitoring.SqlStatementCounter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Plans of the queries of the repositories, as chosen by H2 in MySQL mode on the migrated schema.
+ * <p>
+ * Every method declared by a repository is called with sample arguments in a transaction rolled back at the
+ * end; the statements it prepares are captured by {@link CapturingStatementInspector} and explained. A plan
+ * reading a table without an index fails the test, unless the method is in {@link #FULL_SCAN_ALLOWED}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties =
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=fr.utc.sr03.ChatSR03Admin.repository.RepositoryQueryPlanTest$CapturingStatementInspector")
+@ActiveProfiles("test")
+class RepositoryQueryPlanTest {
+
+    /**
+     * Methods reading whole tables on purpose, with the reason.
+     */
+    private static final Map<String, String> FULL_SCAN_ALLOWED = Map.of(
+            "ChatRepository.findAll", "administration list of every chat",
+            "UserRepository.findAll", "administration pages of every user, with their total count",
+            "UserRepository.findAllByIsActivatedTrue", "administration pages filtered on a two-valued column",
+            "UserRepository.findAllByIsActivatedFalse", "administration pages filtered on a two-valued column");
+
+    /**
+     * Methods writing a single entity by its primary key, not called here.
+     */
+    private static final Set<String> ENTITY_WRITES = Set.of("save", "delete", "deleteById");
+
+    private static final int UNKNOWN_ID = 999_999;
+
+    /**
+     * Statement inspector recording the statements prepared by the current thread, counted as usual.
+     */
+    public static class CapturingStatementInspector extends SqlStatementCounter {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ThreadLocal<List<String>> STATEMENTS = ThreadLocal.withInitial(ArrayList::new);
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.get().add(sql);
+            return super.inspect(sql);
+        }
+
+        static List<String> drain() {
+            List<String> statements = new ArrayList<>(STATEMENTS.get());
+            STATEMENTS.get().clear();
+            return statements;
+        }
+    }
+
+    @Autowired
+    private ChatRepository chatRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private InvitationRepository invitationRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void noRepositoryQueryScansAWholeTable() {
+        Map<Class<?>, Object> repositories = new LinkedHashMap<>();
+        repositories.put(ChatRepository.class, chatRepository);
+        repositories.put(UserRepository.class, userRepository);
+        repositories.put(InvitationRepository.class, invitationRepository);
+        repositories.put(MessageRepository.class, messageRepository);
+
+        List<String> scans = new ArrayList<>();
+        Set<String> explained = new TreeSet<>();
+        repositories.forEach((type, repository) -> {
+            for (Method method : type.getDeclaredMethods()) {
+                if (ENTITY_WRITES.contains(method.getName())) {
+                    continue;
+                }
+                String name = type.getSimpleName() + "." + method.getName();
+                for (String sql : statementsOf(repository, method)) {
+                    String plan = explain(sql);
+                    explained.add(name);
+                    if (plan.contains(".tableScan") && !FULL_SCAN_ALLOWED.containsKey(name)) {
+                        scans.add(name + " : " + plan);
+                    }
+                }
+            }
+        });
+
+        assertTrue(explained.size() > 20, "repository methods explained: " + explained);
+        assertEquals(List.of(), scans);
+    }
+
+    /**
+     * Calls a repository method in a transaction rolled back at the end and returns the statements it prepared.
+     */
+    private List<String> statementsOf(Object repository, Method method) {
+        return transactionTemplate.execute(status -> {
+            status.setRollbackOnly();
+            Object[] arguments = sampleArguments(method);
+            CapturingStatementInspector.drain();
+            try {
+                Object result = method.invoke(repository, arguments);
+                if (result instanceof Stream<?> stream) {
+                    stream.close();
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException(method + " failed", e);
+            }
+            return CapturingStatementInspector.drain();
+        });
+    }
+
+    private Object[] sampleArguments(Method method) {
+        Class<?>[] types = method.getParameterTypes();
+        Object[] arguments = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            arguments[i] = sampleArgument(types[i]);
+        }
+        return arguments;
+    }
+
+    /**
+     * Builds an argument of the given type. The IDs match no row, so that the bulk deletes touch nothing left by
+     * the other tests; the plans do not depend on the values.
+     */
+    private Object sampleArgument(Class<?> type) {
+        if (type == Integer.class || type == int.class) {
+            return UNKNOWN_ID;
+        } else if (type == Long.class || type == long.class) {
+            return (long) UNKNOWN_ID;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return true;
+        } else if (type == String.class) {
+            return "alice@test.fr";
+        } else if (type == Date.class) {
+            return new Date();
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return List.of(UNKNOWN_ID, UNKNOWN_ID + 1);
+        } else if (type == Limit.class) {
+            return Limit.of(10);
+        } else if (type == Pageable.class) {
+            return PageRequest.of(0, 10);
+        } else if (type == Chat.class) {
+            Chat chat = new Chat();
+            chat.setTitle("Plan");
+            chat.setOwnerId(1);
+            return chatRepository.save(chat);
+        } else if (type == User.class) {
+            User user = new User();
+            user.setEmail(UUID.randomUUID() + "@test.fr");
+            return userRepository.save(user);
+        }
+        throw new IllegalArgumentException("No sample argument of type " + type);
+    }
+
+    private String explain(String sql) {
+        return String.join(" ", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class)).replaceAll("\\s+", " ");
+    }
+}
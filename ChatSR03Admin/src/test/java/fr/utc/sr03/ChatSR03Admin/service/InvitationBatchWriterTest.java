@@ -0,0 +1,52 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.dto.InvitationBatchResultDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Counts reported by {@link InvitationBatchWriter}.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class InvitationBatchWriterTest {
+
+    @Autowired
+    private InvitationBatchWriter invitationBatchWriter;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void onlyCreatedInvitationsAreCounted() {
+        int owner = newUser();
+        int invitedBefore = newUser();
+        int guest = newUser();
+        jdbcTemplate.update("INSERT INTO Chat (title, ownerId, `date`, endDate) VALUES ('Lot', ?, CURRENT_TIMESTAMP, '2099-01-01')", owner);
+        int chat = jdbcTemplate.queryForObject("SELECT MAX(id) FROM Chat WHERE ownerId = ?", Integer.class, owner);
+        jdbcTemplate.update("INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)", chat, invitedBefore);
+
+        InvitationBatchResultDto result = invitationBatchWriter.apply(chat, List.of(invitedBefore, guest, guest, Integer.MAX_VALUE), null);
+
+        assertEquals(1, result.invited());
+        assertEquals(List.of(Integer.MAX_VALUE), result.unknownUsers());
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM Invitation WHERE id_chat = ?", Integer.class, chat));
+
+        assertEquals(0, invitationBatchWriter.apply(chat, List.of(guest), List.of(invitedBefore)).invited());
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM Invitation WHERE id_chat = ?", Integer.class, chat));
+    }
+
+    private int newUser() {
+        String email = UUID.randomUUID() + "@test.fr";
+        jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password, isActivated) VALUES ('Prénom', 'Nom', ?, 'secret', TRUE)", email);
+        return jdbcTemplate.queryForObject("SELECT id FROM `User` WHERE email = ?", Integer.class, email);
+    }
+}
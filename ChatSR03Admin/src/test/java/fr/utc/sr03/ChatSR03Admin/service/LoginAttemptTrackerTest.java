@@ -0,0 +1,108 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.entity.User;
+import fr.utc.sr03.ChatSR03Admin.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Login attempt counters shared by the nodes: a second {@link LoginAttemptTracker} over the same database plays
+ * another node.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "chat.loginAttempts.max=3")
+@ActiveProfiles("test")
+class LoginAttemptTrackerTest {
+
+    @Autowired
+    private LoginAttemptTracker loginAttemptTracker;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ResourceVersions resourceVersions;
+
+    @Autowired
+    private UserSearchIndex userSearchIndex;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private LoginAttemptTracker otherNode;
+    private User user;
+
+    @BeforeEach
+    void user() {
+        otherNode = new LoginAttemptTracker(jdbcTemplate, transactionTemplate, entityManagerFactory, resourceVersions,
+                userSearchIndex, new SimpleMeterRegistry(), 3, 4);
+        String email = UUID.randomUUID() + "@test.fr";
+        jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password, isActivated) VALUES ('Prénom', 'Nom', ?, 'secret', TRUE)", email);
+        user = userRepository.findByEmail(email);
+    }
+
+    @Test
+    void failuresOnAllNodesCountTowardsTheLock() {
+        assertFalse(loginAttemptTracker.loginFailed(user));
+        assertFalse(otherNode.loginFailed(user));
+        assertTrue(loginAttemptTracker.loginFailed(user));
+
+        assertEquals(3, loginAttempts());
+        assertFalse(jdbcTemplate.queryForObject("SELECT isActivated FROM `User` WHERE id = ?", Boolean.class, user.getIdUser()));
+        // The entity read before the lock still says activated
+        assertFalse(otherNode.loginSucceeded(user));
+    }
+
+    @Test
+    void aSuccessResetsTheFailuresOfEveryNode() {
+        assertFalse(otherNode.loginFailed(user));
+        assertFalse(otherNode.loginFailed(user));
+
+        assertTrue(loginAttemptTracker.loginSucceeded(user));
+        assertEquals(0, loginAttempts());
+        assertFalse(loginAttemptTracker.loginFailed(user));
+    }
+
+    @Test
+    void concurrentFailuresLockTheAccountOnce() throws Exception {
+        List<Future<Boolean>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 8; i++) {
+                LoginAttemptTracker node = i % 2 == 0 ? loginAttemptTracker : otherNode;
+                results.add(executor.submit(() -> node.loginFailed(user)));
+            }
+        }
+        int lockedAnswers = 0;
+        for (Future<Boolean> result : results) {
+            lockedAnswers += result.get() ? 1 : 0;
+        }
+        assertEquals(8, loginAttempts());
+        // Every failure from the third one on sees the account locked
+        assertEquals(6, lockedAnswers);
+    }
+
+    private int loginAttempts() {
+        return jdbcTemplate.queryForObject("SELECT loginAttempts FROM `User` WHERE id = ?", Integer.class, user.getIdUser());
+    }
+}
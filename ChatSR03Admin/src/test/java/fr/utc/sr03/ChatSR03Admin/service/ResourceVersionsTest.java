@@ -0,0 +1,109 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import fr.utc.sr03.ChatSR03Admin.Security.JwtTokenProvider;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ETags shared between nodes: a second {@link ResourceVersions} over the same database plays another node.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class ResourceVersionsTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ResourceVersions resourceVersions;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JwtTokenProvider jwtTokenProvider;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void changesThroughAnotherNodeMoveTheTags() {
+        ResourceVersions otherNode = new ResourceVersions(jdbcTemplate, transactionManager, 5000, 1000);
+        int idChat = 900_000 + (int) (Math.random() * 10_000);
+        String chat = resourceVersions.chatTag(idChat);
+        String participants = resourceVersions.participantsTag(idChat);
+        String chatList = resourceVersions.chatListTag(idChat);
+
+        otherNode.chatChanged(idChat, List.of(idChat));
+
+        assertNotEquals(chat, resourceVersions.chatTag(idChat));
+        assertNotEquals(participants, resourceVersions.participantsTag(idChat));
+        assertNotEquals(chatList, resourceVersions.chatListTag(idChat));
+        assertEquals(otherNode.chatTag(idChat), resourceVersions.chatTag(idChat));
+        assertTrue(resourceVersions.chatChangedRecently(idChat));
+    }
+
+    @Test
+    void onlyOneNodeClaimsATag() {
+        ResourceVersions otherNode = new ResourceVersions(jdbcTemplate, transactionManager, 5000, 1000);
+        int idUser = 900_000 + (int) (Math.random() * 10_000);
+        for (int round = 0; round < 2; round++) {
+            // Round 0 claims a counter never written, round 1 one that exists
+            String tag = resourceVersions.userTag(idUser);
+            resourceVersions.claimUser(idUser, tag);
+            ResponseStatusException rejected = assertThrows(ResponseStatusException.class, () -> otherNode.claimUser(idUser, tag));
+            assertEquals(HttpStatus.PRECONDITION_FAILED, rejected.getStatusCode());
+        }
+    }
+
+    @Test
+    void staleIfMatchIsRejectedOnUpdate() throws Exception {
+        String email = UUID.randomUUID() + "@test.fr";
+        jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password, isActivated) VALUES ('Prénom', 'Nom', ?, 'secret', TRUE)", email);
+        int idUser = jdbcTemplate.queryForObject("SELECT id FROM `User` WHERE email = ?", Integer.class, email);
+        String token = "Bearer " + jwtTokenProvider.createSimpleToken(idUser, email, true);
+
+        HttpResponse<String> read = httpClient.send(HttpRequest.newBuilder(uri("/api/user/id/" + idUser))
+                .header("Authorization", token).build(), HttpResponse.BodyHandlers.ofString());
+        String etag = read.headers().firstValue("ETag").orElseThrow();
+        HttpResponse<Void> notModified = httpClient.send(HttpRequest.newBuilder(uri("/api/user/id/" + idUser))
+                .header("Authorization", token).header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(304, notModified.statusCode());
+
+        String body = "{\"firstName\":\"Autre\",\"lastName\":\"Nom\",\"email\":\"" + email + "\",\"password\":\"secret\",\"activated\":true}";
+        assertEquals(200, update(idUser, token, etag, body));
+        assertEquals(412, update(idUser, token, etag, body));
+
+        HttpResponse<Void> modified = httpClient.send(HttpRequest.newBuilder(uri("/api/user/id/" + idUser))
+                .header("Authorization", token).header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(200, modified.statusCode());
+    }
+
+    private int update(int idUser, String token, String etag, String body) throws Exception {
+        return httpClient.send(HttpRequest.newBuilder(uri("/api/user/update/" + idUser))
+                .header("Authorization", token).header("If-Match", etag).header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
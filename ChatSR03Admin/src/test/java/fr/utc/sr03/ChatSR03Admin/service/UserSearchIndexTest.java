@@ -0,0 +1,46 @@
+package fr.utc.sr03.ChatSR03Admin.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Pages of {@link UserSearchIndex}, by offset and by cursor.
+ */
+class UserSearchIndexTest {
+
+    private final UserSearchIndex index = new UserSearchIndex(null, null, 10);
+
+    @Test
+    void cursorOfADeletedUserFollowsOnFromItsPosition() {
+        String[] lastNames = {"Alpha", "Bravo", "Charlie", "Delta", "Echo"};
+        for (int i = 0; i < lastNames.length; i++) {
+            index.put(i + 1, "Prénom", lastNames[i], "user" + (i + 1) + "@xyz.fr", true);
+        }
+        // Empty query, short query and trigrams, each in both orders
+        for (String query : new String[]{null, "x", "xyz"}) {
+            UserSearchIndex.SearchResult first = index.search(query, null, true, 0, 2);
+            assertEquals(List.of(1, 2), first.ids());
+            UserSearchIndex.SearchResult last = index.search(query, null, false, 0, 2);
+            assertEquals(List.of(5, 4), last.ids());
+
+            index.remove(2);
+            index.remove(4);
+            assertEquals(List.of(3, 5), index.searchAfter(query, null, true, first.nextCursor(), 2).ids());
+            assertEquals(List.of(3, 1), index.searchAfter(query, null, false, last.nextCursor(), 2).ids());
+            index.put(2, "Prénom", "Bravo", "user2@xyz.fr", true);
+            index.put(4, "Prénom", "Delta", "user4@xyz.fr", true);
+        }
+    }
+
+    @Test
+    void deepOffsetsAndForgedCursorsAreRejected() {
+        index.put(1, "Prénom", "Nom", "user1@xyz.fr", true);
+        assertTrue(index.search(null, null, true, 10, 5).ids().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> index.search(null, null, true, 11, 5));
+        assertThrows(IllegalArgumentException.class, () -> index.searchAfter(null, null, true, "pas un curseur!", 5));
+        assertThrows(IllegalArgumentException.class, () -> index.searchAfter(null, null, true, "bm9t", 5));
+    }
+}
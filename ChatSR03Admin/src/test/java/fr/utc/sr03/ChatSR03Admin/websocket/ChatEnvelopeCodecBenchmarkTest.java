@@ -0,0 +1,94 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Cost per message of the frame handling, compared with the string concatenation it replaced.
+ * <p>
+ * The legacy path builds {@code "User [id]: " + message} and pulls the sender back out of the frame with
+ * {@code indexOf}/{@code substring} before the broadcast. The envelope path parses the client frame, encodes the
+ * envelope once for all the recipients and decodes it as the other nodes do.
+ * <p>
+ * Excluded from the default build, run it with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class ChatEnvelopeCodecBenchmarkTest {
+
+    private static final int ROUNDS = 8;
+    private static final int ITERATIONS = 500_000;
+
+    /** Bodies of the messages, as escaped in the JSON frames sent by the clients. */
+    private static final String[] BODIES = {
+            "Salut !",
+            "Quelqu'un a regardé le sujet du TD de cette semaine ? Je bloque sur la question 3.",
+            "\\\"Citation\\\" avec des caractères à échapper : \\\\ / \\t et des accents éèà",
+    };
+
+    private static volatile Object sink;
+
+    @Test
+    void encodeAndDecodeCostPerMessage() {
+        IntFunction<Object> legacy = i -> {
+            String clientFrame = "{\"idUser\":" + (i & 1023) + ",\"message\":\"" + BODIES[i % BODIES.length] + "\"}";
+            String frame = "User [" + (i & 1023) + "]: " + clientFrame;
+            return legacyExtractIdUser(frame);
+        };
+        IntFunction<Object> envelope = i -> {
+            String clientFrame = "{\"type\":\"message\",\"body\":\"" + BODIES[i % BODIES.length] + "\"}";
+            ChatEnvelopeCodec.ClientFrame parsed = ChatEnvelopeCodec.parseClientFrame(clientFrame);
+            String frame = ChatEnvelopeCodec.encode(new ChatEnvelope(EnvelopeType.MESSAGE, 42, i & 1023, i, i, 1_700_000_000_000L, parsed.body(), "node"));
+            return ChatEnvelopeCodec.decode(frame, "node");
+        };
+
+        assertEquals(7, legacyExtractIdUser("User [7]: {\"idUser\":7,\"message\":\"x\"}"));
+        ChatEnvelope decoded = (ChatEnvelope) envelope.apply(8);
+        assertNotNull(decoded);
+        assertEquals(8, decoded.getSenderId());
+        assertEquals("\"Citation\" avec des caractères à échapper : \\ / \t et des accents éèà", decoded.getBody());
+
+        double legacyNanos = measure(legacy);
+        double envelopeNanos = measure(envelope);
+        System.out.printf("Concaténation + indexOf : %.0f ns/message, enveloppe (parse + encode + decode) : %.0f ns/message%n",
+                legacyNanos, envelopeNanos);
+    }
+
+    /**
+     * Runs the operation for several rounds, the first ones warming up the JIT, and keeps the fastest round.
+     */
+    private static double measure(IntFunction<Object> operation) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink = operation.apply(i);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / (double) ITERATIONS);
+        }
+        return best;
+    }
+
+    /**
+     * Extraction of the sender done by the previous WebSocket server.
+     */
+    private static Integer legacyExtractIdUser(String message) {
+        int idUserIndex = message.indexOf("\"idUser\":");
+        if (idUserIndex == -1) {
+            return null;
+        }
+        int startIndex = idUserIndex + 9;
+        int endIndex = message.indexOf(",", startIndex);
+        if (endIndex == -1) {
+            endIndex = message.indexOf("}", startIndex);
+        }
+        if (endIndex == -1) {
+            return null;
+        }
+        return Integer.parseInt(message.substring(startIndex, endIndex).trim());
+    }
+}
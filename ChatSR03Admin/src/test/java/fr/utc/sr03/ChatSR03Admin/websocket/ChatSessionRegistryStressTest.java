@@ -0,0 +1,130 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Stress test of {@link ChatSessionRegistry}: thousands of concurrent opens and closes spread over a few
+ * chats, while other threads iterate the rooms like the broadcasts do.
+ */
+class ChatSessionRegistryStressTest {
+
+    private static final int CHATS = 8;
+    private static final int THREADS = 32;
+    private static final int SESSIONS_PER_THREAD = 1000;
+
+    @Test
+    void concurrentOpenAndCloseNeitherLoseNorDuplicateSessions() throws Exception {
+        Set<Integer> announced = ConcurrentHashMap.newKeySet();
+        AtomicInteger listenerErrors = new AtomicInteger();
+        ChatSessionRegistry registry = new ChatSessionRegistry(new ChatSessionRegistry.RoomListener() {
+            @Override
+            public void onRoomCreated(Integer idChat) {
+                if (!announced.add(idChat)) {
+                    listenerErrors.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onRoomRemoved(Integer idChat) {
+                if (!announced.remove(idChat)) {
+                    listenerErrors.incrementAndGet();
+                }
+            }
+        });
+
+        Map<Integer, Set<Session>> expected = new ConcurrentHashMap<>();
+        for (int chat = 0; chat < CHATS; chat++) {
+            expected.put(chat, ConcurrentHashMap.newKeySet());
+        }
+        AtomicInteger failedAdds = new AtomicInteger();
+        AtomicInteger failedRemoves = new AtomicInteger();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Throwable> readerErrors = new CopyOnWriteArrayList<>();
+
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            readers.submit(() -> {
+                while (writing.get()) {
+                    try {
+                        for (int chat = 0; chat < CHATS; chat++) {
+                            for (Session session : registry.getSessions(chat)) {
+                                Objects.requireNonNull(session);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        readerErrors.add(e);
+                    }
+                }
+            });
+        }
+
+        ExecutorService writers = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            results.add(writers.submit(() -> {
+                Random random = new Random(seed);
+                start.await();
+                for (int i = 0; i < SESSIONS_PER_THREAD; i++) {
+                    int chat = random.nextInt(CHATS);
+                    Session session = mock(Session.class);
+                    if (!registry.add(chat, session)) {
+                        failedAdds.incrementAndGet();
+                    }
+                    // Half of the sessions leave again, some of them after a duplicate open
+                    if (random.nextBoolean()) {
+                        if (random.nextInt(10) == 0 && registry.add(chat, session)) {
+                            failedAdds.incrementAndGet();
+                        }
+                        if (!registry.remove(chat, session)) {
+                            failedRemoves.incrementAndGet();
+                        }
+                        if (registry.remove(chat, session)) {
+                            failedRemoves.incrementAndGet();
+                        }
+                    } else {
+                        expected.get(chat).add(session);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(1, TimeUnit.MINUTES);
+        }
+        writers.shutdown();
+        writing.set(false);
+        readers.shutdown();
+        assertTrue(readers.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(List.of(), readerErrors);
+        assertEquals(0, failedAdds.get(), "sessions added twice or not added");
+        assertEquals(0, failedRemoves.get(), "sessions removed twice or not removed");
+        assertEquals(0, listenerErrors.get(), "room callbacks out of order");
+        Set<Integer> activeChats = new HashSet<>();
+        for (int chat = 0; chat < CHATS; chat++) {
+            assertEquals(expected.get(chat), new HashSet<>(registry.getSessions(chat)), "sessions of chat " + chat);
+            if (!expected.get(chat).isEmpty()) {
+                activeChats.add(chat);
+            }
+        }
+        assertEquals(activeChats, registry.getChatIds());
+        assertEquals(activeChats, announced);
+
+        // Closing everything leaves no room behind
+        expected.forEach((chat, sessions) -> sessions.forEach(session -> assertTrue(registry.remove(chat, session))));
+        assertEquals(Set.of(), registry.getChatIds());
+        assertEquals(Set.of(), announced);
+    }
+}
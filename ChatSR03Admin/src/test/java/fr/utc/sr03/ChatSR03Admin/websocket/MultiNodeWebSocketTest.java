@@ -0,0 +1,277 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.utc.sr03.ChatSR03Admin.ChatSr03AdminApplication;
+import fr.utc.sr03.ChatSR03Admin.service.ChatSequences;
+import fr.utc.sr03.ChatSR03Admin.service.ExpiredChatJanitor;
+import jakarta.websocket.CloseReason;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Two nodes of the application in the same JVM, sharing the in-memory database and the in-JVM broadcast bus,
+ * with WebSocket clients connected to either of them.
+ */
+class MultiNodeWebSocketTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void startNodes() {
+        nodeA = startNode("a");
+        nodeB = startNode("b");
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        if (nodeB != null) {
+            nodeB.close();
+        }
+        if (nodeA != null) {
+            nodeA.close();
+        }
+    }
+
+    private static ConfigurableApplicationContext startNode(String name) {
+        return new SpringApplicationBuilder(ChatSr03AdminApplication.class)
+                .profiles("test")
+                .properties("server.port=0", "chat.bus.nodeId=" + name)
+                .run();
+    }
+
+    @Test
+    void messagesAreNumberedOnceAcrossNodesAndReplayedOnReconnection() throws Exception {
+        JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+        int sender = newUser(jdbcTemplate);
+        int reader = newUser(jdbcTemplate);
+        int chat = newChat(jdbcTemplate, sender, reader);
+
+        Client senderOnA = connect(nodeA, chat, sender, null);
+        Client readerOnB = connect(nodeB, chat, reader, null);
+        awaitConnected(chat, reader);
+
+        senderOnA.send("m1");
+        senderOnA.send("m2");
+        assertMessage(readerOnB.nextMessage(), "m1", 1);
+        assertMessage(readerOnB.nextMessage(), "m2", 2);
+
+        readerOnB.close();
+        await(() -> !connectedUsers(nodeA, chat).contains(reader));
+        senderOnA.send("m3");
+        ChatSequences chatSequences = nodeA.getBean(ChatSequences.class);
+        await(() -> chatSequences.current(chat) == 3);
+
+        // Node A kept the room open and the message, so it replays it
+        Client readerOnA = connect(nodeA, chat, reader, 2L);
+        assertMessage(readerOnA.nextMessage(), "m3", 3);
+        readerOnA.close();
+        await(() -> connectedUsers(nodeA, chat).equals(Set.of(sender)));
+
+        // Node B closed the room and did not receive the message: it must not claim there is nothing to replay
+        Client resumedOnB = connect(nodeB, chat, reader, 2L);
+        JsonNode gap = resumedOnB.next("resumeGap");
+        assertEquals(2, gap.get("requested").asLong());
+        assertEquals(3, gap.get("lastSequence").asLong());
+
+        // The next number is taken after the ones given by node A
+        resumedOnB.send("m4");
+        assertMessage(senderOnA.nextMessage(), "m4", 4);
+        await(() -> Long.valueOf(4).equals(jdbcTemplate.queryForObject(
+                "SELECT MAX(`sequence`) FROM Message WHERE id_chat = ?", Long.class, chat)));
+        assertEquals(4, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM Message WHERE id_chat = ?", Integer.class, chat));
+
+        resumedOnB.close();
+        senderOnA.close();
+    }
+
+    @Test
+    void rejectedMessagesAreNotDelivered() throws Exception {
+        JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+        int sender = newUser(jdbcTemplate);
+        int reader = newUser(jdbcTemplate);
+        int chat = newChat(jdbcTemplate, sender, reader);
+
+        Client senderOnA = connect(nodeA, chat, sender, null);
+        Client readerOnB = connect(nodeB, chat, reader, null);
+        awaitConnected(chat, reader);
+
+        senderOnA.send("");
+        assertEquals(chat, senderOnA.next("messageRejected").get("chatId").asInt());
+        senderOnA.send("accepté");
+        assertMessage(readerOnB.nextMessage(), "accepté", 1);
+
+        readerOnB.close();
+        senderOnA.close();
+    }
+
+    @Test
+    void presenceAndDeletionCrossTheBusAndAStoppedNodeLeavesIt() throws Exception {
+        JdbcTemplate jdbcTemplate = nodeA.getBean(JdbcTemplate.class);
+        int owner = newUser(jdbcTemplate);
+        int guest = newUser(jdbcTemplate);
+        int third = newUser(jdbcTemplate);
+        int chat = newChat(jdbcTemplate, owner, guest);
+        jdbcTemplate.update("INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)", chat, third);
+
+        ConfigurableApplicationContext nodeC = startNode("c");
+        try {
+            Client ownerOnA = connect(nodeA, chat, owner, null);
+            Client guestOnB = connect(nodeB, chat, guest, null);
+            Client thirdOnC = connect(nodeC, chat, third, null);
+            Set<Integer> everyone = Set.of(owner, guest, third);
+            await(() -> connectedUsers(nodeA, chat).equals(everyone) && connectedUsers(nodeB, chat).equals(everyone)
+                    && connectedUsers(nodeC, chat).equals(everyone));
+
+            // Stopping node C closes its session: the others see the user leave, and it no longer receives anything
+            InJvmBroadcastBus busOfC = nodeC.getBean(InJvmBroadcastBus.class);
+            nodeC.close();
+            assertEquals(CloseReason.CloseCodes.GOING_AWAY.getCode(), thirdOnC.closed.get(10, TimeUnit.SECONDS));
+            await(() -> connectedUsers(nodeA, chat).equals(Set.of(owner, guest))
+                    && connectedUsers(nodeB, chat).equals(Set.of(owner, guest)));
+            List<ChatEnvelope> receivedByC = new CopyOnWriteArrayList<>();
+            busOfC.setListener(receivedByC::add);
+            ownerOnA.send("après l'arrêt");
+            assertMessage(guestOnB.nextMessage(), "après l'arrêt", 1);
+            assertTrue(receivedByC.isEmpty());
+
+            // Deleting the chat on node B also closes the session on node A
+            assertTrue(nodeB.getBean(ExpiredChatJanitor.class).deleteChat(chat));
+            assertEquals(CloseReason.CloseCodes.NORMAL_CLOSURE.getCode(), ownerOnA.closed.get(10, TimeUnit.SECONDS));
+            await(() -> connectedUsers(nodeA, chat).isEmpty() && connectedUsers(nodeB, chat).isEmpty());
+        } finally {
+            nodeC.close();
+        }
+    }
+
+    private void awaitConnected(int chat, int user) throws InterruptedException {
+        await(() -> connectedUsers(nodeA, chat).contains(user) && connectedUsers(nodeB, chat).contains(user));
+    }
+
+    private static Set<Integer> connectedUsers(ConfigurableApplicationContext node, int chat) {
+        return node.getBean(WebSocketServer.class).getConnectedUsers(chat);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition non atteinte après 10 s");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static void assertMessage(JsonNode frame, String body, long chatSequence) {
+        assertEquals(body, frame.get("body").asText());
+        assertEquals(chatSequence, frame.get("chatSequence").asLong());
+    }
+
+    private Client connect(ConfigurableApplicationContext node, int chat, int user, Long lastSeq) {
+        int port = ((WebServerApplicationContext) node).getWebServer().getPort();
+        String query = lastSeq != null ? "?lastSeq=" + lastSeq : "";
+        Client client = new Client();
+        client.webSocket = httpClient.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/WebSocketServer/" + chat + "/" + user + query), client)
+                .join();
+        return client;
+    }
+
+    private static int newUser(JdbcTemplate jdbcTemplate) {
+        String email = UUID.randomUUID() + "@test.fr";
+        jdbcTemplate.update("INSERT INTO `User` (firstName, familyName, email, password, isActivated) VALUES ('Prénom', 'Nom', ?, 'secret', TRUE)", email);
+        return jdbcTemplate.queryForObject("SELECT id FROM `User` WHERE email = ?", Integer.class, email);
+    }
+
+    private static int newChat(JdbcTemplate jdbcTemplate, int owner, int guest) {
+        jdbcTemplate.update("INSERT INTO Chat (title, ownerId, `date`, endDate) VALUES ('Nœuds', ?, CURRENT_TIMESTAMP, '2099-01-01')", owner);
+        int chat = jdbcTemplate.queryForObject("SELECT MAX(id) FROM Chat WHERE ownerId = ?", Integer.class, owner);
+        jdbcTemplate.update("INSERT INTO Invitation (id_chat, id_user) VALUES (?, ?)", chat, guest);
+        return chat;
+    }
+
+    /**
+     * WebSocket client keeping the frames it receives.
+     */
+    private static class Client implements WebSocket.Listener {
+        private final BlockingQueue<JsonNode> frames = new LinkedBlockingQueue<>();
+        private final StringBuilder partial = new StringBuilder();
+        private final CompletableFuture<Integer> closed = new CompletableFuture<>();
+        private WebSocket webSocket;
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                try {
+                    frames.add(MAPPER.readTree(partial.toString()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                partial.setLength(0);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closed.complete(statusCode);
+            return null;
+        }
+
+        void send(String body) {
+            webSocket.sendText(MAPPER.createObjectNode().put("type", "message").put("body", body).toString(), true).join();
+        }
+
+        JsonNode nextMessage() throws InterruptedException {
+            return next("message");
+        }
+
+        /**
+         * Waits for the next frame of a type, skipping the others.
+         */
+        JsonNode next(String type) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            JsonNode frame;
+            do {
+                frame = frames.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                assertNotNull(frame, "Aucune trame " + type + " reçue");
+            } while (!type.equals(frame.path("type").asText()));
+            return frame;
+        }
+
+        void close() {
+            webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").join();
+        }
+    }
+}
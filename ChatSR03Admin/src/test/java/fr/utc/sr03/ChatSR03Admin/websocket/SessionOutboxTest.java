@@ -0,0 +1,34 @@
+package fr.utc.sr03.ChatSR03Admin.websocket;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Eviction of the clients that stopped reading.
+ */
+class SessionOutboxTest {
+
+    @Test
+    void aStuckClientIsEvictedWithoutNewFrames() throws Exception {
+        Session session = mock(Session.class);
+        // The container never reports the completion of the frame
+        when(session.getAsyncRemote()).thenReturn(mock(RemoteEndpoint.Async.class));
+        SessionOutbox outbox = new SessionOutbox(session, 16, OverflowPolicy.DROP_OLDEST, 50);
+
+        assertTrue(outbox.offer("frame"));
+        assertFalse(outbox.evictIfLagging());
+        verify(session, never()).close(any(CloseReason.class));
+
+        Thread.sleep(100);
+        assertTrue(outbox.evictIfLagging());
+        verify(session).close(any(CloseReason.class));
+        assertFalse(outbox.evictIfLagging());
+        assertFalse(outbox.offer("frame"));
+    }
+}